@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Immutable catalog of the API commands available to an account, built from one unfiltered
+ * <code>listApis</code> call. Besides the command names it keeps each command's parameters so callers can
+ * check whether a command pages (has a <code>pagesize</code> parameter) or which parameters take lists.
+ * Command names are matched case insensitively, as CloudStack does.
+ *
+ * @version 2015.10 initial version
+ * @since 2015.10
+ */
+public final class ApiCatalog {
+    /**
+     * One parameter of an API command.
+     */
+    static public final class ApiParam {
+        private final String  name;
+        private final String  type;
+        private final boolean required;
+        private final int     length;
+
+        ApiParam(@Nonnull String name, @Nullable String type, boolean required, int length) {
+            this.name = name;
+            this.type = type;
+            this.required = required;
+            this.length = length;
+        }
+
+        public @Nonnull String getName() {
+            return name;
+        }
+
+        /**
+         * @return the declared type, such as <code>string</code>, <code>integer</code>, <code>uuid</code> or <code>list</code>
+         */
+        public @Nullable String getType() {
+            return type;
+        }
+
+        public boolean isList() {
+            return "list".equalsIgnoreCase(type);
+        }
+
+        public boolean isRequired() {
+            return required;
+        }
+
+        /**
+         * @return the maximum length of the value or 0 if not reported
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * One API command.
+     */
+    static public final class Api {
+        private final String                name;
+        private final boolean               async;
+        private final Map<String, ApiParam> params;
+
+        Api(@Nonnull String name, boolean async, @Nonnull Map<String, ApiParam> params) {
+            this.name = name;
+            this.async = async;
+            this.params = Collections.unmodifiableMap(params);
+        }
+
+        public @Nonnull String getName() {
+            return name;
+        }
+
+        public boolean isAsync() {
+            return async;
+        }
+
+        /**
+         * @param name the parameter name, case insensitive
+         * @return the parameter or null if the command does not take it
+         */
+        public @Nullable ApiParam getParam(@Nonnull String name) {
+            return params.get(name.toLowerCase());
+        }
+
+        public @Nonnull Collection<ApiParam> getParams() {
+            return params.values();
+        }
+
+        public boolean isPaged() {
+            return params.containsKey("pagesize");
+        }
+    }
+
+    /**
+     * Parses a <code>listApis</code> response.
+     * @param doc the response of an unfiltered <code>listApis</code> call
+     * @return the catalog of the listed commands
+     */
+    static @Nonnull ApiCatalog parse(@Nonnull Document doc) {
+        Map<String, Api> apis = new HashMap<String, Api>();
+        NodeList matches = doc.getElementsByTagName("api");
+
+        for( int i=0; i<matches.getLength(); i++ ) {
+            NodeList attributes = matches.item(i).getChildNodes();
+            Map<String, ApiParam> params = new HashMap<String, ApiParam>();
+            String name = null;
+            boolean async = false;
+
+            for( int j=0; j<attributes.getLength(); j++ ) {
+                Node attribute = attributes.item(j);
+                String attr = attribute.getNodeName().toLowerCase();
+
+                if( attr.equals("name") ) {
+                    name = CSCloud.getTextValue(attribute);
+                }
+                else if( attr.equals("isasync") ) {
+                    async = CSCloud.getBooleanValue(attribute);
+                }
+                else if( attr.equals("params") ) {
+                    ApiParam param = toParam(attribute);
+
+                    if( param != null ) {
+                        params.put(param.getName().toLowerCase(), param);
+                    }
+                }
+            }
+            if( name != null ) {
+                apis.put(name.trim().toLowerCase(), new Api(name.trim(), async, params));
+            }
+        }
+        return new ApiCatalog(apis);
+    }
+
+    static private @Nullable ApiParam toParam(@Nonnull Node node) {
+        NodeList attributes = node.getChildNodes();
+        String name = null, type = null;
+        boolean required = false;
+        int length = 0;
+
+        for( int i=0; i<attributes.getLength(); i++ ) {
+            Node attribute = attributes.item(i);
+            String attr = attribute.getNodeName().toLowerCase();
+
+            if( !attribute.hasChildNodes() ) {
+                continue;
+            }
+            if( attr.equals("name") ) {
+                name = CSCloud.getTextValue(attribute).trim();
+            }
+            else if( attr.equals("type") ) {
+                type = CSCloud.getTextValue(attribute).trim();
+            }
+            else if( attr.equals("required") ) {
+                required = CSCloud.getBooleanValue(attribute);
+            }
+            else if( attr.equals("length") ) {
+                try {
+                    length = Integer.parseInt(CSCloud.getTextValue(attribute).trim());
+                }
+                catch( NumberFormatException ignore ) {
+                    // not reported
+                }
+            }
+        }
+        return ( name == null ? null : new ApiParam(name, type, required, length) );
+    }
+
+    private final Map<String, Api> apis;
+
+    ApiCatalog(@Nonnull Map<String, Api> apis) {
+        this.apis = Collections.unmodifiableMap(apis);
+    }
+
+    /**
+     * @param name the command name
+     * @return the command or null if it is not available to the account
+     */
+    public @Nullable Api getApi(@Nonnull String name) {
+        return apis.get(name.toLowerCase());
+    }
+
+    public boolean hasApi(@Nonnull String name) {
+        return apis.containsKey(name.toLowerCase());
+    }
+
+    /**
+     * @return the lower case names of all available commands
+     */
+    public @Nonnull Set<String> getApiNames() {
+        return apis.keySet();
+    }
+
+    public @Nonnull Collection<Api> getApis() {
+        return apis.values();
+    }
+
+    public int size() {
+        return apis.size();
+    }
+}
@@ -25,8 +25,16 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.AbstractCloud;
@@ -113,11 +121,13 @@ public class CSCloud extends AbstractCloud {
     
     @Override
     public @Nonnull CSComputeServices getComputeServices() {
+        prepare();
         return new CSComputeServices(this);
     }
     
     @Override
     public @Nonnull CSTopology getDataCenterServices() {
+        prepare();
         return new CSTopology(this);
     }
     
@@ -131,6 +141,7 @@ public class CSCloud extends AbstractCloud {
 
     @Override
     public @Nonnull CSNetworkServices getNetworkServices() {
+        prepare();
         return new CSNetworkServices(this);
     }
     
@@ -176,72 +187,104 @@ public class CSCloud extends AbstractCloud {
     private transient String versionString;
 
     public @Nonnull String getVersionString() throws CloudException {
-        APITrace.begin(this, "CSCloud.getVersionString");
         if( versionString == null ) {
-            //run list zone query to check whether this might be v4
-            try {
-                CSMethod method = new CSMethod(this);
-                Document doc = method.get("listZones", new Param("available", "true"));
-                NodeList meta = doc.getElementsByTagName("listzonesresponse");
-                for (int item = 0; item<meta.getLength(); item++) {
-                    Node node = meta.item(item);
-                    versionString = node.getAttributes().getNamedItem("cloud-stack-version").getNodeValue();
-                }
-            }
-            catch (Throwable e) {
-                throw new CloudException("Unable to get CloudStack version for "+getCloudName(), e);
-            }
-            finally {
-                APITrace.end();
-            }
+            versionString = loadVersionString();
         }
         return versionString;
     }
 
+    @Nullable String loadVersionString() throws CloudException {
+        String v = null;
+
+        //run list zone query to check whether this might be v4
+        APITrace.begin(this, "CSCloud.getVersionString");
+        try {
+            CSMethod method = new CSMethod(this);
+            Document doc = method.get("listZones", new Param("available", "true"));
+
+            v = parseVersionString(doc);
+        }
+        catch (Throwable e) {
+            throw new CloudException("Unable to get CloudStack version for "+getCloudName(), e);
+        }
+        finally {
+            APITrace.end();
+        }
+        return v;
+    }
+
+    /**
+     * Reads the CloudStack version that a <code>listZones</code> response carries as an attribute.
+     * @param doc the <code>listZones</code> response
+     * @return the version string or null if the response does not carry it
+     */
+    static @Nullable String parseVersionString(@Nonnull Document doc) {
+        NodeList meta = doc.getElementsByTagName("listzonesresponse");
+        String v = null;
+
+        for( int item = 0; item<meta.getLength(); item++ ) {
+            Node attr = meta.item(item).getAttributes().getNamedItem("cloud-stack-version");
+
+            if( attr != null ) {
+                v = attr.getNodeValue();
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Sets the version string from a {@link DiscoverySnapshot} or a zone listing so that it need not be queried.
+     */
+    void restoreVersionString(@Nonnull String versionString) {
+        this.versionString = versionString;
+    }
+
     private transient CSVersion version;
 
     public @Nonnull
     CSVersion getVersion() {
-        APITrace.begin(this, "CSCloud.getVersion");
-        if( version == null ) {
-            ProviderContext ctx = getContext();
-            Properties properties = (ctx == null ? null : ctx.getCustomProperties());
-            String versionString;
+        if( version != null ) {
+            return version;
+        }
+        ProviderContext ctx = getContext();
+        Properties properties = (ctx == null ? null : ctx.getCustomProperties());
+        String versionString;
 
-            if (properties == null || properties.getProperty("apiVersion") == null || properties.getProperty("apiVersion").equals("")) {
-               //run list zone query to check whether this might be v4
-                try {
-                    CSMethod method = new CSMethod(this);
-                    Document doc = method.get("listZones", new Param("available", "true"));
-                    NodeList meta = doc.getElementsByTagName("listzonesresponse");
-                    for (int item = 0; item<meta.getLength(); item++) {
-                        Node node = meta.item(item);
-                        String v = node.getAttributes().getNamedItem("cloud-stack-version").getNodeValue();
-                        if (v.startsWith("4")) {
-                            if (properties == null) {
-                                properties = new Properties();
-                            }
-                            properties.setProperty("apiVersion", "CS4");
-                            logger.info("Version property not found so setting based on result of query: "+v);
-                            version = CSVersion.CS4;
-                            return version;
+        if (properties == null || properties.getProperty("apiVersion") == null || properties.getProperty("apiVersion").equals("")) {
+            //run list zone query to check whether this might be v4
+            APITrace.begin(this, "CSCloud.getVersion");
+            try {
+                String v = this.versionString;
+
+                if( v == null ) {
+                    v = loadVersionString();
+                    this.versionString = v;
+                }
+                if( v != null ) {
+                    if (v.startsWith("4")) {
+                        if (properties == null) {
+                            properties = new Properties();
                         }
+                        properties.setProperty("apiVersion", "CS4");
+                        logger.info("Version property not found so setting based on result of query: "+v);
+                        version = CSVersion.CS4;
+                        return version;
                     }
                 }
-                catch (Throwable ignore) {}
-                finally {
-                    APITrace.end();
-                }
-            }
-
-            versionString = (properties == null ? "CS3" : properties.getProperty("apiVersion", "CS3"));
-            try {
-                version = CSVersion.valueOf(versionString);
             }
-            catch( Throwable t ) {
-                version = CSVersion.CS3;
+            catch (Throwable ignore) {}
+            finally {
+                APITrace.end();
             }
         }
+
+        versionString = (properties == null ? "CS3" : properties.getProperty("apiVersion", "CS3"));
+        try {
+            version = CSVersion.valueOf(versionString);
+        }
+        catch( Throwable t ) {
+            version = CSVersion.CS3;
+        }
         return version;
     }
 
@@ -486,6 +529,242 @@ public class CSCloud extends AbstractCloud {
         }
     }
     
+    static private volatile ExecutorService executor;
+
+    static private @Nonnull ExecutorService getExecutor() {
+        if( executor == null ) {
+            synchronized( CSCloud.class ) {
+                if( executor == null ) {
+                    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(@Nonnull Runnable r) {
+                            Thread t = new Thread(r, "dasein-cloudstack-" + count.incrementAndGet());
+
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Runs the task on the executor shared by all CloudStack providers. The provider is held open until
+     * the task completes.
+     * @param task the task to run
+     * @return the pending result of the task
+     */
+    public @Nonnull <T> Future<T> submit(@Nonnull final Callable<T> task) {
+        hold();
+        try {
+            return getExecutor().submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return task.call();
+                    }
+                    finally {
+                        release();
+                    }
+                }
+            });
+        }
+        catch( RuntimeException e ) {
+            release();
+            throw e;
+        }
+    }
+
+    private transient volatile Future<Void> warmUp;
+
+    /**
+     * Starts the discovery that the first operations against a new context would otherwise do one after the
+     * other: the CloudStack version, the account, the API catalog, the zones and, when a region is set, its
+     * hypervisors and service offerings. All lookups run concurrently and fill the usual caches; a failed
+     * lookup is only logged and is retried by the operation that needs it. The version comes with the zone listing
+     * rather than from a call of its own. The provider is held open until all lookups have finished. The warm-up
+     * runs once per provider.
+     * It starts by itself with the first service lookup when the custom property <code>warmUp</code> is
+     * <code>true</code>.
+     * @return completes when all lookups have finished
+     */
+    public @Nonnull Future<Void> warmUp() {
+        synchronized( this ) {
+            if( warmUp != null ) {
+                return warmUp;
+            }
+            ProviderContext ctx = getContext();
+
+            hold();
+            try {
+                warmUp = submitWarmUps(ctx == null ? null : ctx.getRegionId());
+            }
+            catch( RuntimeException e ) {
+                release();
+                throw e;
+            }
+            return warmUp;
+        }
+    }
+
+    /**
+     * Submits every warm-up lookup and a task that completes once they all have, which releases the provider.
+     */
+    private @Nonnull Future<Void> submitWarmUps(@Nullable final String regionId) {
+        final List<Future<Void>> lookups = new ArrayList<Future<Void>>();
+
+        lookups.add(submitWarmUp("account", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                getUserAccountData();
+                return null;
+            }
+        }));
+        lookups.add(submitWarmUp("API catalog", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                getApiCatalog();
+                return null;
+            }
+        }));
+        lookups.add(submitWarmUp("zones and version", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                new CSTopology(CSCloud.this).listZones();
+                getVersion();
+                return null;
+            }
+        }));
+        if( regionId != null ) {
+            lookups.add(submitWarmUp("hypervisors", new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    getZoneHypervisors(regionId);
+                    return null;
+                }
+            }));
+            lookups.add(submitWarmUp("service offerings", new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    new CSComputeServices(CSCloud.this).getVirtualMachineSupport().listAllProducts();
+                    return null;
+                }
+            }));
+        }
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    for( Future<Void> lookup : lookups ) {
+                        await(lookup);
+                    }
+                }
+                finally {
+                    release();
+                }
+                return null;
+            }
+        });
+    }
+
+    private @Nonnull Future<Void> submitWarmUp(@Nonnull final String name, @Nonnull final Callable<Void> lookup) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    lookup.call();
+                }
+                catch( Throwable t ) {
+                    logger.warn("Unable to warm up " + name + ": " + t.getMessage());
+                }
+                return null;
+            }
+        });
+    }
+
+    private transient volatile boolean prepared;
+
+    private transient volatile Future<Void> discoveryRevalidation;
+
+    /**
+     * Provides the background revalidation of the {@link DiscoverySnapshot}. Waiting for it guarantees that the
+     * snapshot file has been written, for example before a short-lived process exits right after its first run.
+     * @return the revalidation, which completes once the snapshot is written or the attempt failed, or null if
+     * discovery snapshots are not enabled
+     */
+    public @Nullable Future<Void> getDiscoveryRevalidation() {
+        prepare();
+        return discoveryRevalidation;
+    }
+
+    /**
+     * Restores the {@link DiscoverySnapshot} and starts the warm-up, if either is enabled, the first time a
+     * service is looked up.
+     */
+    private void prepare() {
+        if( prepared ) {
+            return;
+        }
+        synchronized( this ) {
+            if( prepared ) {
+                return;
+            }
+            prepared = true;
+        }
+        ProviderContext ctx = getContext();
+        Properties p = ( ctx == null ? null : ctx.getCustomProperties() );
+
+        if( ctx == null ) {
+            prepared = false;
+            return;
+        }
+        DiscoverySnapshot snapshot = DiscoverySnapshot.getInstance(this);
+
+        if( snapshot != null ) {
+            discoveryRevalidation = snapshot.restore();
+        }
+        if( p != null && "true".equalsIgnoreCase(p.getProperty("warmUp")) ) {
+            warmUp();
+        }
+    }
+
+    /**
+     * Waits for a task started with {@link #submit(Callable)} and rethrows its failure as the cloud
+     * or internal exception it originally was.
+     * @param future the pending result
+     * @return the result of the task
+     * @throws CloudException the task failed with an error from the cloud provider
+     * @throws InternalException the task failed within Dasein Cloud or the wait was interrupted
+     */
+    public <T> T await(@Nonnull Future<T> future) throws CloudException, InternalException {
+        try {
+            return future.get();
+        }
+        catch( InterruptedException e ) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw ( CloudException ) cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw ( InternalException ) cause;
+            }
+            if( cause instanceof RuntimeException ) {
+                throw ( RuntimeException ) cause;
+            }
+            throw new InternalException(cause);
+        }
+    }
+
     public Document waitForJob(Document doc, String jobName) throws CloudException, InternalException {
         NodeList matches = doc.getElementsByTagName("jobid");
         if( matches.getLength() > 0 ) {
@@ -497,68 +776,89 @@ public class CSCloud extends AbstractCloud {
     public Document waitForJob(String jobId, String jobName) throws CloudException, InternalException {
         APITrace.begin(this, "waitForJob");
         try {
-            CSMethod method = new CSMethod(this);
-            while( true ) {
-                try { Thread.sleep(5000L); }
-                catch( InterruptedException e ) { /* ignore */ }
-                Document doc = method.get("queryAsyncJobResult", new Param("jobId", jobId));
+            return getJobWatcher().await(jobId, jobName);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-                NodeList matches = doc.getElementsByTagName("jobstatus");
-                int status = 0;
+    private transient volatile JobWatcher jobWatcher;
 
-                if( matches.getLength() > 0 ) {
-                    status = Integer.parseInt(matches.item(0).getFirstChild().getNodeValue());
+    /**
+     * @return the watcher tracking all of the async jobs this provider is waiting on
+     */
+    public @Nonnull JobWatcher getJobWatcher() {
+        if( jobWatcher == null ) {
+            synchronized( this ) {
+                if( jobWatcher == null ) {
+                    jobWatcher = new JobWatcher(this);
                 }
-                if( status > 0 ) {
-                    int code = status;
+            }
+        }
+        return jobWatcher;
+    }
 
-                    if( status == 1 ) {
-                        return doc;
-                    }
-                    if( status == 2 ) {
-                        matches = doc.getElementsByTagName("jobresult");
-                        if( matches.getLength() > 0 ) {
-                            String str = matches.item(0).getFirstChild().getNodeValue();
-
-                            if( str == null || str.trim().length() < 1 ) {
-                                NodeList nodes = matches.item(0).getChildNodes();
-                                String message = null;
-
-                                for( int i=0; i<nodes.getLength(); i++ ) {
-                                    Node n = nodes.item(i);
-
-                                    if( n.getNodeName().equalsIgnoreCase("errorcode") ) {
-                                        try {
-                                            code = Integer.parseInt(n.getFirstChild().getNodeValue().trim());
-                                        }
-                                        catch( NumberFormatException ignore ) {
-                                            // ignore
-                                        }
-                                    }
-                                    else if( n.getNodeName().equalsIgnoreCase("errortext") ) {
-                                        message = n.getFirstChild().getNodeValue().trim();
-                                    }
-                                }
-                                CSMethod.ParsedError error = new CSMethod.ParsedError();
+    /**
+     * Interprets a <code>queryAsyncJobResult</code> response.
+     * @param doc the job result response
+     * @param jobName the name of the job for error messages
+     * @return the response if the job completed successfully or null if it is still pending
+     * @throws CloudException the job failed
+     */
+    @Nullable Document checkJob(@Nonnull Document doc, @Nonnull String jobName) throws CloudException {
+        NodeList matches = doc.getElementsByTagName("jobstatus");
+        int status = 0;
+
+        if( matches.getLength() > 0 ) {
+            status = Integer.parseInt(matches.item(0).getFirstChild().getNodeValue());
+        }
+        if( status > 0 ) {
+            int code = status;
+
+            if( status == 1 ) {
+                return doc;
+            }
+            if( status == 2 ) {
+                matches = doc.getElementsByTagName("jobresult");
+                if( matches.getLength() > 0 ) {
+                    String str = matches.item(0).getFirstChild().getNodeValue();
+
+                    if( str == null || str.trim().length() < 1 ) {
+                        NodeList nodes = matches.item(0).getChildNodes();
+                        String message = null;
+
+                        for( int i=0; i<nodes.getLength(); i++ ) {
+                            Node n = nodes.item(i);
 
-                                error.code = code;
-                                error.message = message;
-                                throw new CSException(error);
+                            if( n.getNodeName().equalsIgnoreCase("errorcode") ) {
+                                try {
+                                    code = Integer.parseInt(n.getFirstChild().getNodeValue().trim());
+                                }
+                                catch( NumberFormatException ignore ) {
+                                    // ignore
+                                }
                             }
-                            else {
-                                throw new CloudException(str);
+                            else if( n.getNodeName().equalsIgnoreCase("errortext") ) {
+                                message = n.getFirstChild().getNodeValue().trim();
                             }
                         }
-                        else {
-                            throw new CloudException(jobName + " failed with an unexplained error.");
-                        }
+                        CSMethod.ParsedError error = new CSMethod.ParsedError();
+
+                        error.code = code;
+                        error.message = message;
+                        throw new CSException(error);
+                    }
+                    else {
+                        throw new CloudException(str);
                     }
                 }
+                else {
+                    throw new CloudException(jobName + " failed with an unexplained error.");
+                }
             }
         }
-        finally {
-            APITrace.end();
-        }
+        return null;
     }
 
 
@@ -578,21 +878,98 @@ public class CSCloud extends AbstractCloud {
         return getUserAccountData().isAdmin();
     }
 
+    private transient volatile boolean apiCatalogUnavailable;
+
+    /**
+     * Provides the API commands available to the current account from one unfiltered <code>listApis</code>
+     * call, cached for a day.
+     * @return the catalog or null if the account may not call <code>listApis</code> without a name
+     * @throws CloudException an error occurred with the cloud provider listing the commands
+     * @throws InternalException an error occurred within Dasein Cloud listing the commands
+     */
+    public @Nullable ApiCatalog getApiCatalog() throws CloudException, InternalException {
+        if( apiCatalogUnavailable ) {
+            return null;
+        }
+        Cache<ApiCatalog> cache = Cache.getInstance(this, "apiCatalog", ApiCatalog.class, CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
+        Iterable<ApiCatalog> cachedValues = cache.get(getContext());
+
+        if( cachedValues != null ) {
+            Iterator<ApiCatalog> it = cachedValues.iterator();
+
+            if( it.hasNext() ) {
+                return it.next();
+            }
+        }
+        ApiCatalog catalog = loadApiCatalog();
+
+        if( catalog != null ) {
+            restoreApiCatalog(catalog);
+        }
+        return catalog;
+    }
+
+    void restoreApiCatalog(@Nonnull ApiCatalog catalog) {
+        Cache<ApiCatalog> cache = Cache.getInstance(this, "apiCatalog", ApiCatalog.class, CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
+
+        cache.put(getContext(), Collections.singletonList(catalog));
+    }
+
+    @Nullable ApiCatalog loadApiCatalog() throws CloudException, InternalException {
+        APITrace.begin(this, "getApiCatalog");
+        try {
+            ApiCatalog catalog = ApiCatalog.parse(new CSMethod(this).get("listApis"));
+
+            if( catalog.size() < 1 ) {
+                apiCatalogUnavailable = true;
+                return null;
+            }
+            return catalog;
+        }
+        catch( CSException e ) {
+            if( e.getHttpCode() == 530 ) {
+                apiCatalogUnavailable = true;
+                return null;
+            }
+            throw e;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
     public boolean hasApi(@Nullable String callName) throws CloudException, InternalException {
+        if( callName != null ) {
+            ApiCatalog catalog = getApiCatalog();
+
+            if( catalog != null ) {
+                return catalog.hasApi(callName);
+            }
+        }
+        // fall back to probing the single command
+        String scopeKey = "api." + callName;
+        Boolean scoped = RequestScope.get(this, scopeKey, Boolean.class);
+        if( scoped != null ) {
+            return scoped;
+        }
         Cache<Boolean> cache = Cache.getInstance(this, "api."+callName, Boolean.class, CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
         Iterable<Boolean> cachedValues = cache.get(getContext());
         if( cachedValues != null && cachedValues.iterator().hasNext() ) {
-            return cachedValues.iterator().next();
+            Boolean value = cachedValues.iterator().next();
+            RequestScope.put(this, scopeKey, value);
+            return value;
         }
         APITrace.begin(this, "getApis");
 
         try {
             new CSMethod(this).get("listApis", new Param("name", callName));
             cache.put(getContext(), Collections.singleton(Boolean.TRUE));
+            RequestScope.put(this, scopeKey, Boolean.TRUE);
             return true;
         } catch( CSException e ) {
             if( e.getHttpCode() == 530 ) {
                 cache.put(getContext(), Collections.singleton(Boolean.FALSE));
+                RequestScope.put(this, scopeKey, Boolean.FALSE);
                 return false;
             }
             throw e;
@@ -754,26 +1131,40 @@ public class CSCloud extends AbstractCloud {
         if( ctx == null ) {
             throw new CloudException("No context was set for this request");
         }
+        String scopeKey = "hypervisors." + ctx.getRegionId();
+        List<String> scoped = RequestScope.getList(this, scopeKey, String.class);
+        if( scoped != null ) {
+            return scoped;
+        }
         String cacheName = "hypervisorCache";
         Cache<String> hypervisorCache = Cache.getInstance(this, cacheName, String.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
 
         List<String> zoneHypervisors = Iterables.toList(hypervisorCache.get(ctx));
         if( zoneHypervisors != null ) {
+            RequestScope.put(this, scopeKey, zoneHypervisors);
             return zoneHypervisors;
         }
-        try {
-            Document doc = new CSMethod(this).get(LIST_HYPERVISORS, new Param("zoneid", ctx.getRegionId()));
-            NodeList nodes = doc.getElementsByTagName("name");
-            zoneHypervisors = new ArrayList<String>();
-            for( int i = 0; i < nodes.getLength(); i++ ) {
-                Node item = nodes.item(i);
-                zoneHypervisors.add(item.getFirstChild().getNodeValue().trim());
-            }
-            hypervisorCache.put(ctx, zoneHypervisors);
-            return zoneHypervisors;
-        }
-        finally {
+        zoneHypervisors = loadZoneHypervisors();
+        hypervisorCache.put(ctx, zoneHypervisors);
+        RequestScope.put(this, scopeKey, zoneHypervisors);
+        return zoneHypervisors;
+    }
+
+    @Nonnull List<String> loadZoneHypervisors() throws CloudException, InternalException {
+        Document doc = new CSMethod(this).get(LIST_HYPERVISORS, new Param("zoneid", getContext().getRegionId()));
+        NodeList nodes = doc.getElementsByTagName("name");
+        List<String> zoneHypervisors = new ArrayList<String>();
+        for( int i = 0; i < nodes.getLength(); i++ ) {
+            Node item = nodes.item(i);
+            zoneHypervisors.add(item.getFirstChild().getNodeValue().trim());
         }
+        return zoneHypervisors;
+    }
+
+    void restoreZoneHypervisors(@Nonnull List<String> zoneHypervisors) {
+        Cache<String> hypervisorCache = Cache.getInstance(this, "hypervisorCache", String.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
+
+        hypervisorCache.put(getContext(), zoneHypervisors);
     }
 
     public @Nullable void createTags(@Nonnull String[] resIds, @Nonnull String resourceType, Tag... keyValuePairs) throws InternalException, CloudException {
@@ -903,41 +1294,4 @@ public class CSCloud extends AbstractCloud {
         }
     }
 
-    /**
-     * Returns the boolean value of the given node.
-     *
-     * @param node the node to extract the value from
-     * @return the boolean value of the node
-     */
-    static public boolean getBooleanValue( Node node ) {
-        return Boolean.valueOf(getTextValue(node));
-    }
-
-    public @Nonnull List<String> getZoneHypervisors(String regionId) throws CloudException, InternalException {
-        ProviderContext ctx = getContext();
-        if( ctx == null ) {
-            throw new CloudException("No context was set for this request");
-        }
-        String cacheName = "hypervisorCache";
-        Cache<String> hypervisorCache = Cache.getInstance(this, cacheName, String.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-
-        List<String> zoneHypervisors = Iterables.toList(hypervisorCache.get(ctx));
-        if( zoneHypervisors != null ) {
-            return zoneHypervisors;
-        }
-        try {
-            CSMethod method = new CSMethod(this);
-            Document doc = method.get(method.buildUrl(LIST_HYPERVISORS, new Param("zoneid", ctx.getRegionId())), LIST_HYPERVISORS);
-            NodeList nodes = doc.getElementsByTagName("name");
-            zoneHypervisors = new ArrayList<String>();
-            for( int i=0; i< nodes.getLength(); i++ ) {
-                Node item = nodes.item(i);
-                zoneHypervisors.add(item.getFirstChild().getNodeValue().trim());
-            }
-            hypervisorCache.put(ctx, zoneHypervisors);
-            return zoneHypervisors;
-        } finally {
-        }
-    }
-
 }
@@ -39,7 +39,6 @@ import org.dasein.cloud.dc.StoragePool;
 import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
-import org.dasein.util.uom.time.Day;
 import org.dasein.util.uom.time.Minute;
 import org.dasein.util.uom.time.TimePeriod;
 import org.w3c.dom.Document;
@@ -70,14 +69,9 @@ public class CSTopology extends AbstractDataCenterServices<CSCloud> {
     public @Nullable DataCenter getDataCenter(@Nonnull String zoneId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "DC.getDataCenter");
         try {
-            for( Region region : listRegions() ) {
-                for( DataCenter dc : listDataCenters(region.getProviderRegionId()) ) {
-                    if( dc.getProviderDataCenterId().equals(zoneId) ) {
-                        return dc;
-                    }
-                }
-            }
-            return null;
+            ZoneDescriptor zone = getZone(zoneId);
+
+            return ( zone == null ? null : zone.toDataCenter() );
         }
         finally {
             APITrace.end();
@@ -87,58 +81,93 @@ public class CSTopology extends AbstractDataCenterServices<CSCloud> {
     public @Nullable Region getRegion(@Nonnull String regionId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "DC.getRegion");
         try {
-            for( Region region : listRegions() ) {
-                if( region.getProviderRegionId().equals(regionId) ) {
-                    return region;
-                }
-            }
-            return null;
+            ZoneDescriptor zone = getZone(regionId);
+
+            return ( zone == null ? null : zone.toRegion() );
         }
         finally {
             APITrace.end();
         }
     }
 
-    public boolean zoneSupportsVlans(@Nonnull String zoneId) throws InternalException, CloudException {
-        Cache<Boolean> cache = Cache.getInstance(getProvider(), "advanced.vlan."+zoneId, Boolean.class, CacheLevel.CLOUD_ACCOUNT,
-                new TimePeriod<Day>(1,
-                TimePeriod.DAY));
-        Iterable<Boolean> cachedValues = cache.get(getContext());
-        if( cachedValues != null && cachedValues.iterator().hasNext() ) {
-            return cachedValues.iterator().next();
+    /**
+     * @param zoneId the zone to look up
+     * @return the description of the zone or null if no such zone is available to the account
+     * @throws InternalException an error occurred within Dasein Cloud listing the zones
+     * @throws CloudException an error occurred with the cloud provider listing the zones
+     */
+    public @Nullable ZoneDescriptor getZone(@Nonnull String zoneId) throws InternalException, CloudException {
+        for( ZoneDescriptor zone : listZones() ) {
+            if( zone.getZoneId().equals(zoneId) ) {
+                return zone;
+            }
         }
+        return null;
+    }
 
-        APITrace.begin(getProvider(), "DC.zoneSupportsVlans");
+    /**
+     * Describes every zone available to the account from one <code>listZones</code> call, cached for 15 minutes.
+     * All topology and zone capability lookups read from this list.
+     * @return the available zones
+     * @throws InternalException an error occurred within Dasein Cloud listing the zones
+     * @throws CloudException an error occurred with the cloud provider listing the zones
+     */
+    public @Nonnull Iterable<ZoneDescriptor> listZones() throws InternalException, CloudException {
+        Cache<ZoneDescriptor> cache = Cache.getInstance(getProvider(), "zones", ZoneDescriptor.class, CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Minute>(15, TimePeriod.MINUTE));
+        Iterable<ZoneDescriptor> zones = cache.get(getContext());
+
+        if( zones != null ) {
+            return zones;
+        }
+        zones = loadZones();
+        cache.put(getContext(), zones);
+        return zones;
+    }
+
+    void restoreZones(@Nonnull List<ZoneDescriptor> zones) {
+        Cache<ZoneDescriptor> cache = Cache.getInstance(getProvider(), "zones", ZoneDescriptor.class, CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Minute>(15, TimePeriod.MINUTE));
+
+        cache.put(getContext(), Collections.unmodifiableList(zones));
+    }
+
+    @Nonnull List<ZoneDescriptor> loadZones() throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "DC.listZones");
         try {
             Document doc = new CSMethod(getProvider()).get(LIST_ZONES, new Param("available", "true"));
+            List<ZoneDescriptor> list = new ArrayList<ZoneDescriptor>();
+            String versionString = CSCloud.parseVersionString(doc);
 
+            if( versionString != null ) {
+                getProvider().restoreVersionString(versionString);
+            }
             NodeList matches = doc.getElementsByTagName("zone");
-            for( int i=0; i<matches.getLength(); i++ ) {
-                Node zone = matches.item(i);
 
-                if( zone.hasChildNodes() ) {
-                    NodeList attrs = zone.getChildNodes();
-                    String networkType = null;
-                    String id = null;
-
-                    for( int j=0; j<attrs.getLength(); j++ ) {
-                        Node attr = attrs.item(j);
+            for( int i=0; i<matches.getLength(); i++ ) {
+                ZoneDescriptor zone = toZone(matches.item(i));
 
-                        if( attr.getNodeName().equalsIgnoreCase("id") ) {
-                            id = attr.getFirstChild().getNodeValue().trim();
+                if( zone != null ) {
+                    if (getProvider().getProviderName().contains("Datapipe")) {
+                        // don't return Shanghai region as there are Chinese license concerns
+                        if (zone.getName().contains("Shanghai")) {
+                            continue;
                         }
-                        else if( attr.getNodeName().equalsIgnoreCase("networkType") ) {
-                            networkType = attr.getFirstChild().getNodeValue().trim();
-                        }
-                    }
-                    if( zoneId.equals(id) ) {
-                        boolean advancedZone = !"basic".equalsIgnoreCase(networkType);
-                        cache.put(getContext(), Collections.singleton(advancedZone));
-                        return advancedZone;
                     }
+                    list.add(zone);
                 }
             }
-            return false;
+            return Collections.unmodifiableList(list);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    public boolean zoneSupportsVlans(@Nonnull String zoneId) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "DC.zoneSupportsVlans");
+        try {
+            ZoneDescriptor zone = getZone(zoneId);
+
+            return ( zone != null && zone.supportsVlans() );
         }
         finally {
             APITrace.end();
@@ -146,43 +175,19 @@ public class CSTopology extends AbstractDataCenterServices<CSCloud> {
     }
     
     public boolean supportsSecurityGroups(@Nonnull String zoneId, boolean basicOnly) throws InternalException, CloudException {
+        String scopeKey = "securityGroups." + zoneId + "." + basicOnly;
+        Boolean scoped = RequestScope.get(getProvider(), scopeKey, Boolean.class);
+
+        if( scoped != null ) {
+            return scoped;
+        }
         APITrace.begin(getProvider(), "DC.supportsSecurityGroups");
         try {
-            Document doc = new CSMethod(getProvider()).get(LIST_ZONES, new Param("available", "true"));
-            boolean sg = false;
-            boolean basic = false;
+            ZoneDescriptor zone = getZone(zoneId);
+            boolean supported = ( zone != null && (!basicOnly || zone.isBasic()) && zone.isSecurityGroupsEnabled() );
 
-            NodeList matches = doc.getElementsByTagName("zone");
-            for( int i=0; i<matches.getLength(); i++ ) {
-                Node zone = matches.item(i);
-
-                if( zone.hasChildNodes() ) {
-                    NodeList attrs = zone.getChildNodes();
-                    boolean groups = false;
-                    String networkType = null;
-                    String id = null;
-
-                    for( int j=0; j<attrs.getLength(); j++ ) {
-                        Node attr = attrs.item(j);
-
-                        if( attr.getNodeName().equalsIgnoreCase("id") ) {
-                            id = attr.getFirstChild().getNodeValue().trim();
-                        }
-                        else if( attr.getNodeName().equalsIgnoreCase("networkType") ) {
-                            networkType = attr.getFirstChild().getNodeValue().trim();
-                        }
-                        else if( attr.getNodeName().equalsIgnoreCase("securitygroupsenabled") ) {
-                            groups = attr.getFirstChild().getNodeValue().trim().equalsIgnoreCase("true");
-                        }
-                    }
-                    if( zoneId.equals(id) ) {
-                        basic = "basic".equalsIgnoreCase(networkType);
-                        sg = groups;
-                        break;
-                    }
-                }
-            }
-            return ((!basicOnly || basic) && sg);
+            RequestScope.put(getProvider(), scopeKey, supported);
+            return supported;
         }
         finally {
             APITrace.end();
@@ -192,26 +197,12 @@ public class CSTopology extends AbstractDataCenterServices<CSCloud> {
     public @Nonnull Iterable<DataCenter> listDataCenters(@Nonnull String regionId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "DC.listDataCenters");
         try {
-            Cache<DataCenter> cache = Cache.getInstance(getProvider(), "dataCenters", DataCenter.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Minute>(15, TimePeriod.MINUTE));
-            Iterable<DataCenter> dcs = cache.get(getContext());
-
-            if( dcs == null ) {
-                Region region = getRegion(regionId);
-
-                if( region == null ) {
-                    throw new CloudException("No such region: " + regionId);
-                }
-                DataCenter zone = new DataCenter();
+            ZoneDescriptor zone = getZone(regionId);
 
-                zone.setActive(true);
-                zone.setAvailable(true);
-                zone.setName(region.getName() + " (DC)");
-                zone.setProviderDataCenterId(regionId);
-                zone.setRegionId(regionId);
-                dcs = Collections.singletonList(zone);
-                cache.put(getContext(), dcs);
+            if( zone == null ) {
+                throw new CloudException("No such region: " + regionId);
             }
-            return dcs;
+            return Collections.singletonList(zone.toDataCenter());
         }
         finally {
             APITrace.end();
@@ -221,28 +212,10 @@ public class CSTopology extends AbstractDataCenterServices<CSCloud> {
     public @Nonnull Iterable<Region> listRegions() throws InternalException, CloudException {
         APITrace.begin(getProvider(), "DC.listRegions");
         try {
-            Cache<Region> cache = Cache.getInstance(getProvider(), "regions", Region.class, CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Minute>(15, TimePeriod.MINUTE));
-            Iterable<Region> regions = cache.get(getContext());
+            List<Region> regions = new ArrayList<Region>();
 
-            if( regions == null ) {
-                Document doc = new CSMethod(getProvider()).get(LIST_ZONES, new Param("available", "true"));
-
-                regions = new ArrayList<Region>();
-                NodeList matches = doc.getElementsByTagName("zone");
-                for( int i=0; i<matches.getLength(); i++ ) {
-                    Region r = toRegion(matches.item(i));
-
-                    if( r != null ) {
-                        if (getProvider().getProviderName().contains("Datapipe")) {
-                            // don't return Shanghai region as there are Chinese license concerns
-                            if (r.getName().contains("Shanghai")) {
-                                continue;
-                            }
-                        }
-                        ((List)regions).add(r);
-                    }
-                }
-                cache.put(getContext(), regions);
+            for( ZoneDescriptor zone : listZones() ) {
+                regions.add(zone.toRegion());
             }
             return regions;
         }
@@ -251,41 +224,45 @@ public class CSTopology extends AbstractDataCenterServices<CSCloud> {
         }
     }
 
-    private @Nullable Region toRegion(@Nullable Node node) {
+    private @Nullable ZoneDescriptor toZone(@Nullable Node node) {
         if( node == null ) {
             return null;
         }
         NodeList attributes = node.getChildNodes();
-        Region region = new Region();
+        String zoneId = null, name = null, networkType = null;
+        boolean groups = false;
         
         for( int i=0; i<attributes.getLength(); i++ ) {
             Node n = attributes.item(i);
-            String name = n.getNodeName().toLowerCase();
+            String attr = n.getNodeName().toLowerCase();
             String value;
             
             if( n.getChildNodes().getLength() > 0 ) {
-                value = n.getFirstChild().getNodeValue();
+                value = n.getFirstChild().getNodeValue().trim();
             }
             else {
                 value = null;
             }
-            if( name.equals("id") ) {
-                region.setProviderRegionId(value);
+            if( attr.equals("id") ) {
+                zoneId = value;
+            }
+            else if( attr.equals("name") ) {
+                name = value;
+            }
+            else if( attr.equals("networktype") ) {
+                networkType = value;
             }
-            else if( name.equals("name") ) {
-                region.setName(value);
+            else if( attr.equals("securitygroupsenabled") ) {
+                groups = "true".equalsIgnoreCase(value);
             }
         }
-        if( region.getProviderRegionId() == null ) {
+        if( zoneId == null ) {
             return null;
         }
-        if( region.getName() == null ) {
-            region.setName(region.getProviderRegionId());
+        if( name == null ) {
+            name = zoneId;
         }
-        region.setActive(true);
-        region.setAvailable(true);
-        region.setJurisdiction(getJurisdiction(region.getName()));
-        return region;
+        return new ZoneDescriptor(zoneId, name, networkType, groups, getJurisdiction(name));
     }
     
     private String getJurisdiction(String name) {
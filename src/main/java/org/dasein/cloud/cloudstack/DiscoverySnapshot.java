@@ -0,0 +1,391 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.cloudstack.compute.CSComputeServices;
+import org.dasein.cloud.cloudstack.compute.VirtualMachines;
+import org.dasein.cloud.compute.VirtualMachineProduct;
+
+/**
+ * Optional on-disk copy of what a provider discovers about a cloud account: the CloudStack version, the API
+ * catalog, the zones and, per zone, the hypervisors and service offerings. It is enabled by setting the custom
+ * property <code>discoverySnapshotDirectory</code> to a writable directory; there is one file per endpoint and
+ * account. The snapshot is loaded into the provider's caches on first use so that a new process does not have
+ * to rediscover these, and is then revalidated against the cloud in the background, once per process, and
+ * written back; {@link CSCloud#getDiscoveryRevalidation()} exposes that revalidation, so a caller can wait for
+ * the first snapshot to be written.
+ *
+ * @version 2015.10 initial version
+ * @since 2015.10
+ */
+public final class DiscoverySnapshot {
+    static private final Logger logger = CSCloud.getLogger(DiscoverySnapshot.class, "std");
+
+    static private final ConcurrentMap<String, Future<Void>> revalidations = new ConcurrentHashMap<String, Future<Void>>();
+
+    /**
+     * @param provider the provider to snapshot
+     * @return the snapshot of the provider's endpoint and account or null if snapshots are not enabled
+     */
+    static @Nullable DiscoverySnapshot getInstance(@Nonnull CSCloud provider) {
+        ProviderContext ctx = provider.getContext();
+        Properties p = ( ctx == null ? null : ctx.getCustomProperties() );
+        String directory = ( p == null ? null : p.getProperty("discoverySnapshotDirectory") );
+
+        if( directory == null || directory.trim().equals("") ) {
+            return null;
+        }
+        String key = ctx.getCloud().getEndpoint() + "|" + ctx.getAccountNumber();
+
+        return new DiscoverySnapshot(provider, new File(directory.trim(), "cloudstack-" + hash(key) + ".properties"), key + "|" + ctx.getRegionId());
+    }
+
+    static private @Nonnull String hash(@Nonnull String key) {
+        try {
+            StringBuilder str = new StringBuilder();
+
+            for( byte b : MessageDigest.getInstance("SHA-1").digest(key.getBytes("utf-8")) ) {
+                str.append(String.format("%02x", b & 0xff));
+            }
+            return str.toString();
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new RuntimeException(e);
+        }
+        catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final CSCloud provider;
+    private final File    file;
+    private final String  revalidationKey;
+
+    private DiscoverySnapshot(@Nonnull CSCloud provider, @Nonnull File file, @Nonnull String revalidationKey) {
+        this.provider = provider;
+        this.file = file;
+        this.revalidationKey = revalidationKey;
+    }
+
+    /**
+     * Loads the snapshot, if there is one, into the provider's caches and starts revalidating it in the
+     * background. Both happen once per process for the same endpoint, account and region; later providers share
+     * the caches and the revalidation, so the cached values expire and refresh as usual.
+     * @return the revalidation, which completes once the snapshot file has been written or the attempt failed
+     */
+    @Nonnull Future<Void> restore() {
+        Future<Void> revalidation = revalidations.get(revalidationKey);
+
+        if( revalidation != null ) {
+            return revalidation;
+        }
+        synchronized( revalidations ) {
+            revalidation = revalidations.get(revalidationKey);
+            if( revalidation != null ) {
+                return revalidation;
+            }
+            if( file.exists() ) {
+                try {
+                    restore(read());
+                }
+                catch( Throwable t ) {
+                    logger.warn("Unable to restore discovery snapshot " + file + ": " + t.getMessage());
+                }
+            }
+            revalidation = provider.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        revalidate();
+                    }
+                    catch( Throwable t ) {
+                        revalidations.remove(revalidationKey);
+                        logger.warn("Unable to revalidate discovery snapshot " + file + ": " + t.getMessage());
+                    }
+                    return null;
+                }
+            });
+            revalidations.put(revalidationKey, revalidation);
+        }
+        return revalidation;
+    }
+
+    /**
+     * Parses the whole snapshot and only then applies it to the provider's caches, so that a damaged snapshot
+     * leaves the caches untouched.
+     */
+    private void restore(@Nonnull Properties snapshot) {
+        String regionId = provider.getContext().getRegionId();
+        String version = snapshot.getProperty("version");
+        Map<String, ApiCatalog.Api> apis = new HashMap<String, ApiCatalog.Api>();
+        // entries are numbered in listing order
+        Map<Integer, ZoneDescriptor> zones = new TreeMap<Integer, ZoneDescriptor>();
+        Map<Integer, VirtualMachineProduct> products = new TreeMap<Integer, VirtualMachineProduct>();
+        String productPrefix = "products." + regionId + ".";
+        List<String> hypervisors = null;
+
+        for( String name : snapshot.stringPropertyNames() ) {
+            String value = snapshot.getProperty(name);
+
+            if( name.startsWith("api.") ) {
+                ApiCatalog.Api api = toApi(value);
+
+                apis.put(api.getName().toLowerCase(), api);
+            }
+            else if( name.startsWith("zone.") ) {
+                zones.put(Integer.parseInt(name.substring("zone.".length())), toZone(value));
+            }
+            else if( regionId != null && name.startsWith(productPrefix) ) {
+                products.put(Integer.parseInt(name.substring(productPrefix.length())), toProduct(value));
+            }
+            else if( regionId != null && name.equals("hypervisors." + regionId) ) {
+                hypervisors = ( value.equals("") ? new ArrayList<String>() : Arrays.asList(value.split(",")) );
+            }
+        }
+        if( version != null ) {
+            provider.restoreVersionString(version);
+        }
+        if( !apis.isEmpty() ) {
+            provider.restoreApiCatalog(new ApiCatalog(apis));
+        }
+        if( !zones.isEmpty() ) {
+            new CSTopology(provider).restoreZones(new ArrayList<ZoneDescriptor>(zones.values()));
+        }
+        if( hypervisors != null ) {
+            provider.restoreZoneHypervisors(hypervisors);
+        }
+        if( !products.isEmpty() ) {
+            new CSComputeServices(provider).getVirtualMachineSupport().restoreProducts(new ArrayList<VirtualMachineProduct>(products.values()));
+        }
+    }
+
+    /**
+     * Discovers everything in the snapshot from the cloud again, refreshes the provider's caches with it and
+     * merges it into the snapshot file, keeping what the file holds for other regions.
+     */
+    private void revalidate() throws Exception {
+        final String regionId = provider.getContext().getRegionId();
+        final Properties fresh = new Properties();
+        String version = provider.loadVersionString();
+        ApiCatalog catalog = provider.loadApiCatalog();
+        CSTopology topology = new CSTopology(provider);
+        List<ZoneDescriptor> zones = topology.loadZones();
+        List<String> hypervisors = null;
+        VirtualMachines vms = null;
+        List<VirtualMachineProduct> products = null;
+
+        if( regionId != null ) {
+            hypervisors = provider.loadZoneHypervisors();
+            vms = new CSComputeServices(provider).getVirtualMachineSupport();
+            products = vms.loadProducts();
+        }
+        if( version != null ) {
+            provider.restoreVersionString(version);
+            fresh.setProperty("version", version);
+        }
+        if( catalog != null ) {
+            provider.restoreApiCatalog(catalog);
+            for( ApiCatalog.Api api : catalog.getApis() ) {
+                fresh.setProperty("api." + api.getName().toLowerCase(), toString(api));
+            }
+        }
+        int i = 0;
+
+        topology.restoreZones(zones);
+        for( ZoneDescriptor zone : zones ) {
+            fresh.setProperty("zone." + (i++), toString(zone));
+        }
+        if( hypervisors != null ) {
+            StringBuilder str = new StringBuilder();
+
+            provider.restoreZoneHypervisors(hypervisors);
+            for( String hypervisor : hypervisors ) {
+                if( str.length() > 0 ) {
+                    str.append(",");
+                }
+                str.append(hypervisor);
+            }
+            fresh.setProperty("hypervisors." + regionId, str.toString());
+        }
+        if( products != null ) {
+            vms.restoreProducts(products);
+            i = 0;
+            for( VirtualMachineProduct product : products ) {
+                fresh.setProperty("products." + regionId + "." + (i++), toString(product));
+            }
+        }
+        update(new SnapshotUpdate() {
+            @Override
+            public void apply(@Nonnull Properties snapshot) {
+                for( String name : snapshot.stringPropertyNames() ) {
+                    if( name.startsWith("api.") || name.startsWith("zone.") || (regionId != null && name.startsWith("products." + regionId + ".")) ) {
+                        snapshot.remove(name);
+                    }
+                }
+                snapshot.putAll(fresh);
+            }
+        });
+    }
+
+    private interface SnapshotUpdate {
+        void apply(@Nonnull Properties snapshot);
+    }
+
+    static @Nonnull String toString(@Nonnull ZoneDescriptor zone) {
+        return zone.getZoneId() + "|" + (zone.getNetworkType() == null ? "" : zone.getNetworkType()) + "|" + zone.isSecurityGroupsEnabled() + "|" + zone.getJurisdiction() + "|" + zone.getName();
+    }
+
+    static @Nonnull ZoneDescriptor toZone(@Nonnull String value) {
+        String[] parts = value.split("\\|", 5);
+
+        return new ZoneDescriptor(parts[0], parts[4], parts[1].equals("") ? null : parts[1], Boolean.valueOf(parts[2]), parts[3]);
+    }
+
+    static @Nonnull String toString(@Nonnull VirtualMachineProduct product) {
+        return product.getProviderProductId() + "|" + product.getCpuCount() + "|" + product.getRamSize().getQuantity().intValue() + "|" + product.getName();
+    }
+
+    static @Nonnull VirtualMachineProduct toProduct(@Nonnull String value) {
+        String[] parts = value.split("\\|", 4);
+
+        return VirtualMachines.toProduct(parts[0], parts[3], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    static @Nonnull String toString(@Nonnull ApiCatalog.Api api) {
+        StringBuilder str = new StringBuilder();
+
+        str.append(api.getName()).append("|").append(api.isAsync()).append("|");
+        for( ApiCatalog.ApiParam param : api.getParams() ) {
+            str.append(param.getName()).append(":");
+            str.append(param.getType() == null ? "" : param.getType()).append(":");
+            str.append(param.isRequired()).append(":");
+            str.append(param.getLength()).append(",");
+        }
+        return str.toString();
+    }
+
+    static @Nonnull ApiCatalog.Api toApi(@Nonnull String value) {
+        String[] parts = value.split("\\|", 3);
+        Map<String, ApiCatalog.ApiParam> params = new HashMap<String, ApiCatalog.ApiParam>();
+
+        for( String p : parts[2].split(",") ) {
+            String[] attrs = p.split(":", 4);
+
+            if( attrs.length == 4 ) {
+                params.put(attrs[0].toLowerCase(), new ApiCatalog.ApiParam(attrs[0], attrs[1].equals("") ? null : attrs[1], Boolean.valueOf(attrs[2]), Integer.parseInt(attrs[3])));
+            }
+        }
+        return new ApiCatalog.Api(parts[0], Boolean.valueOf(parts[1]), params);
+    }
+
+    private @Nonnull Properties read() throws IOException {
+        Properties snapshot = new Properties();
+        InputStream input = new FileInputStream(file);
+
+        try {
+            snapshot.load(input);
+        }
+        finally {
+            input.close();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads, changes and writes the snapshot file while holding a lock on a companion <code>.lock</code> file,
+     * so that processes sharing the directory do not lose each other's regions. The new content is written to a
+     * temporary file in the same directory and then renamed over the snapshot.
+     */
+    private void update(@Nonnull SnapshotUpdate update) throws IOException {
+        // file locks are held per process, so threads of this process are serialized here
+        synchronized( DiscoverySnapshot.class ) {
+            RandomAccessFile lockFile = new RandomAccessFile(new File(file.getParentFile(), file.getName() + ".lock"), "rw");
+
+            try {
+                FileLock lock = lockFile.getChannel().lock();
+
+                try {
+                    Properties snapshot = ( file.exists() ? read() : new Properties() );
+
+                    update.apply(snapshot);
+                    write(snapshot);
+                }
+                finally {
+                    lock.release();
+                }
+            }
+            finally {
+                lockFile.close();
+            }
+        }
+    }
+
+    private void write(@Nonnull Properties snapshot) throws IOException {
+        File tmp = File.createTempFile(file.getName() + ".", ".tmp", file.getParentFile());
+
+        try {
+            OutputStream output = new FileOutputStream(tmp);
+
+            try {
+                snapshot.store(output, "CloudStack discovery snapshot");
+            }
+            finally {
+                output.close();
+            }
+            if( !tmp.renameTo(file) ) {
+                // some platforms will not rename over an existing file
+                if( !file.delete() || !tmp.renameTo(file) ) {
+                    throw new IOException("Unable to replace " + file);
+                }
+            }
+        }
+        finally {
+            if( tmp.exists() ) {
+                tmp.delete();
+            }
+        }
+    }
+}
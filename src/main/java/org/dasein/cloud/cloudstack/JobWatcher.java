@@ -0,0 +1,383 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tracks every async job a provider is waiting on. Instead of each waiting thread polling
+ * <code>queryAsyncJobResult</code> for its own job, one of the waiting threads polls on behalf of all of them.
+ * With only a few jobs outstanding each job is queried directly; with more, one <code>listAsyncJobs</code>
+ * sweep finds the finished jobs and only those are queried for their results. Waits for other kinds of state,
+ * through {@link #awaitState(StateProbe, long, long)}, share one poller thread across all providers.
+ *
+ * @version 2015.10 initial version
+ * @since 2015.10
+ */
+public class JobWatcher {
+    static private final Logger logger = CSCloud.getLogger(JobWatcher.class, "std");
+
+    static public final String LIST_ASYNC_JOBS        = "listAsyncJobs";
+    static public final String QUERY_ASYNC_JOB_RESULT = "queryAsyncJobResult";
+
+    static private final long POLL_INTERVAL   = 5000L;
+    static private final int  BATCH_THRESHOLD = 4;
+    static private final long CLOCK_SKEW      = 600000L;
+
+    static private class PendingJob {
+        private final String jobId;
+        private final String jobName;
+        private final long   submitted = System.currentTimeMillis();
+        private boolean           done;
+        private Document          result;
+        private CloudException    cloudError;
+        private InternalException internalError;
+
+        private PendingJob(String jobId, String jobName) {
+            this.jobId = jobId;
+            this.jobName = jobName;
+        }
+    }
+
+    /**
+     * Checks whether some resource has reached the state a caller is waiting for.
+     */
+    public interface StateProbe<T> {
+        /**
+         * @return the value to hand to the waiting caller or null if the state has not been reached yet
+         * @throws CloudException an error occurred with the cloud provider while checking the state
+         * @throws InternalException an error occurred within Dasein Cloud while checking the state
+         */
+        @Nullable T check() throws CloudException, InternalException;
+    }
+
+    static private volatile ScheduledExecutorService statePoller;
+
+    static private @Nonnull ScheduledExecutorService getStatePoller() {
+        if( statePoller == null ) {
+            synchronized( JobWatcher.class ) {
+                if( statePoller == null ) {
+                    statePoller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(@Nonnull Runnable r) {
+                            Thread t = new Thread(r, "dasein-cloudstack-state-poller");
+
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                }
+            }
+        }
+        return statePoller;
+    }
+
+    /**
+     * One caller waiting in {@link #awaitState(StateProbe, long, long)}, checked by the shared poller.
+     */
+    static private class StateWait<T> implements Runnable {
+        private final StateProbe<T>  probe;
+        private final long           until;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile T                 value;
+        private volatile CloudException    cloudError;
+        private volatile InternalException internalError;
+
+        private StateWait(@Nonnull StateProbe<T> probe, long until) {
+            this.probe = probe;
+            this.until = until;
+        }
+
+        @Override
+        public void run() {
+            if( done.getCount() < 1 ) {
+                return;
+            }
+            try {
+                value = probe.check();
+            }
+            catch( CloudException e ) {
+                cloudError = e;
+            }
+            catch( InternalException e ) {
+                internalError = e;
+            }
+            catch( RuntimeException e ) {
+                internalError = new InternalException(e);
+            }
+            if( value != null || cloudError != null || internalError != null || System.currentTimeMillis() >= until ) {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Polls the probe until it reports a value or the timeout expires. The probe is checked immediately on the
+     * calling thread and then once every <code>interval</code> milliseconds by a poller thread shared by all
+     * waiting callers, so probes should be quick checks.
+     * @param probe the state check
+     * @param interval the delay between checks in milliseconds
+     * @param timeout how long to keep checking in milliseconds
+     * @return the first value reported by the probe or null if the timeout expired first
+     * @throws CloudException the probe failed with an error from the cloud provider
+     * @throws InternalException the probe failed within Dasein Cloud or the wait was interrupted
+     */
+    static public @Nullable <T> T awaitState(@Nonnull StateProbe<T> probe, long interval, long timeout) throws CloudException, InternalException {
+        long until = System.currentTimeMillis() + timeout;
+        T value = probe.check();
+
+        if( value != null || System.currentTimeMillis() >= until ) {
+            return value;
+        }
+        StateWait<T> wait = new StateWait<T>(probe, until);
+        ScheduledFuture<?> checks = getStatePoller().scheduleWithFixedDelay(wait, interval, interval, TimeUnit.MILLISECONDS);
+
+        try {
+            wait.done.await();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        finally {
+            checks.cancel(false);
+        }
+        if( wait.cloudError != null ) {
+            throw wait.cloudError;
+        }
+        if( wait.internalError != null ) {
+            throw wait.internalError;
+        }
+        return wait.value;
+    }
+
+    private final CSCloud                 provider;
+    private final Map<String, PendingJob> pending = new LinkedHashMap<String, PendingJob>();
+    private boolean                       polling;
+
+    JobWatcher(@Nonnull CSCloud provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Blocks until the job completes.
+     * @param jobId the async job to wait for
+     * @param jobName the name of the job for error messages
+     * @return the <code>queryAsyncJobResult</code> response of the completed job
+     * @throws CloudException the job failed or its status could not be determined
+     * @throws InternalException an error occurred within Dasein Cloud while waiting for the job
+     */
+    public @Nonnull Document await(@Nonnull String jobId, @Nonnull String jobName) throws CloudException, InternalException {
+        PendingJob job;
+
+        synchronized( this ) {
+            job = pending.get(jobId);
+            if( job == null ) {
+                job = new PendingJob(jobId, jobName);
+                pending.put(jobId, job);
+            }
+        }
+        while( true ) {
+            synchronized( this ) {
+                while( !job.done && polling ) {
+                    try { wait(POLL_INTERVAL); }
+                    catch( InterruptedException e ) { /* ignore */ }
+                }
+                if( job.done ) {
+                    break;
+                }
+                polling = true;
+            }
+            try {
+                while( !isDone(job) ) {
+                    try { Thread.sleep(POLL_INTERVAL); }
+                    catch( InterruptedException e ) { /* ignore */ }
+                    poll();
+                }
+            }
+            finally {
+                synchronized( this ) {
+                    polling = false;
+                    notifyAll();
+                }
+            }
+        }
+        if( job.cloudError != null ) {
+            throw job.cloudError;
+        }
+        if( job.internalError != null ) {
+            throw job.internalError;
+        }
+        return job.result;
+    }
+
+    private synchronized boolean isDone(@Nonnull PendingJob job) {
+        return job.done;
+    }
+
+    private void poll() {
+        List<PendingJob> jobs;
+
+        synchronized( this ) {
+            jobs = new ArrayList<PendingJob>(pending.values());
+        }
+        if( jobs.size() >= BATCH_THRESHOLD ) {
+            Set<String> finished = listFinishedJobs(jobs);
+
+            if( finished != null ) {
+                List<PendingJob> ready = new ArrayList<PendingJob>();
+
+                for( PendingJob job : jobs ) {
+                    if( finished.contains(job.jobId) ) {
+                        ready.add(job);
+                    }
+                }
+                jobs = ready;
+            }
+        }
+        CSMethod method = new CSMethod(provider);
+
+        for( PendingJob job : jobs ) {
+            try {
+                Document doc = provider.checkJob(method.get(QUERY_ASYNC_JOB_RESULT, new Param("jobId", job.jobId)), job.jobName);
+
+                if( doc != null ) {
+                    complete(job, doc, null, null);
+                }
+            }
+            catch( CloudException e ) {
+                complete(job, null, e, null);
+            }
+            catch( InternalException e ) {
+                complete(job, null, null, e);
+            }
+            catch( RuntimeException e ) {
+                complete(job, null, null, new InternalException(e));
+            }
+        }
+    }
+
+    /**
+     * Lists the account's async jobs to find which of the given jobs are no longer pending. Only jobs started
+     * since the oldest of the given jobs was submitted, less a margin for clock skew, are listed. Jobs missing from
+     * the listing are reported as finished so that they get queried directly.
+     * @return the ids of the finished jobs or null if the jobs could not be listed
+     */
+    private Set<String> listFinishedJobs(@Nonnull List<PendingJob> jobs) {
+        Set<String> unseen = new HashSet<String>();
+        long since = System.currentTimeMillis();
+
+        for( PendingJob job : jobs ) {
+            unseen.add(job.jobId);
+            since = Math.min(since, job.submitted);
+        }
+        Set<String> finished = new HashSet<String>();
+
+        try {
+            CSMethod method = new CSMethod(provider);
+            Param pageParam = new Param("page", "1");
+            List<Param> params = new ArrayList<Param>();
+
+            params.add(new Param("startDate", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date(since - CLOCK_SKEW))));
+            params.add(new Param("pagesize", "500"));
+            params.add(pageParam);
+
+            int numPages = 1;
+
+            for( int page = 1; page <= numPages && !unseen.isEmpty(); page++ ) {
+                pageParam.setValue(String.valueOf(page));
+                Document doc = method.get(LIST_ASYNC_JOBS, params);
+
+                if( page == 1 ) {
+                    NodeList nodes = doc.getElementsByTagName("count");
+                    Node n = nodes.item(0);
+
+                    if( n != null ) {
+                        int count = Integer.parseInt(n.getFirstChild().getNodeValue().trim());
+
+                        numPages = count / 500;
+                        if( count % 500 > 0 ) {
+                            numPages++;
+                        }
+                    }
+                }
+                NodeList matches = doc.getElementsByTagName("asyncjobs");
+
+                for( int i = 0; i < matches.getLength(); i++ ) {
+                    NodeList attributes = matches.item(i).getChildNodes();
+                    String jobId = null;
+                    String status = null;
+
+                    for( int j = 0; j < attributes.getLength(); j++ ) {
+                        Node attribute = attributes.item(j);
+                        String name = attribute.getNodeName().toLowerCase();
+
+                        if( name.equals("jobid") ) {
+                            jobId = CSCloud.getTextValue(attribute);
+                        }
+                        else if( name.equals("jobstatus") ) {
+                            status = CSCloud.getTextValue(attribute);
+                        }
+                    }
+                    if( jobId != null && unseen.remove(jobId) && status != null && !status.trim().equals("0") ) {
+                        finished.add(jobId);
+                    }
+                }
+            }
+        }
+        catch( Throwable t ) {
+            logger.warn("Unable to list async jobs, querying each job instead: " + t.getMessage());
+            return null;
+        }
+        finished.addAll(unseen);
+        return finished;
+    }
+
+    private synchronized void complete(@Nonnull PendingJob job, Document result, CloudException cloudError, InternalException internalError) {
+        job.result = result;
+        job.cloudError = cloudError;
+        job.internalError = internalError;
+        job.done = true;
+        pending.remove(job.jobId);
+        notifyAll();
+    }
+}
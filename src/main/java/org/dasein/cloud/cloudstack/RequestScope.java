@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Request scoped memoization of provider lookups such as {@link CSCloud#hasApi(String)} or
+ * {@link CSTopology#supportsSecurityGroups(String, boolean)}. A public operation opens a scope on the
+ * calling thread and closes it in its <code>finally</code> block; nested operations share the outermost
+ * scope, so a value is resolved at most once per top level call. Outside of a scope nothing is remembered.
+ * <pre>
+ *     RequestScope scope = RequestScope.open();
+ *     try {
+ *         ...
+ *     }
+ *     finally {
+ *         scope.close();
+ *     }
+ * </pre>
+ *
+ * @version 2015.10 initial version
+ * @since 2015.10
+ */
+public final class RequestScope {
+    static private final ThreadLocal<RequestScope> current = new ThreadLocal<RequestScope>();
+
+    /**
+     * Opens a scope on the current thread, or joins the scope that is already open.
+     * @return the scope to close once the operation completes
+     */
+    static public @Nonnull RequestScope open() {
+        RequestScope scope = current.get();
+
+        if( scope == null ) {
+            scope = new RequestScope();
+            current.set(scope);
+        }
+        scope.depth++;
+        return scope;
+    }
+
+    /**
+     * Looks up a value remembered in the current scope.
+     * @param owner the provider the value belongs to
+     * @param key the name of the value, including any region or resource it is specific to
+     * @param type the expected type of the value
+     * @return the remembered value or null if there is no open scope or nothing was remembered
+     */
+    static public @Nullable <T> T get(@Nonnull Object owner, @Nonnull String key, @Nonnull Class<T> type) {
+        RequestScope scope = current.get();
+
+        if( scope == null ) {
+            return null;
+        }
+        Map<String, Object> values = scope.values.get(owner);
+
+        if( values == null ) {
+            return null;
+        }
+        Object value = values.get(key);
+
+        return ( type.isInstance(value) ? type.cast(value) : null );
+    }
+
+    /**
+     * Looks up a list remembered in the current scope.
+     * @param owner the provider the list belongs to
+     * @param key the name of the list, including any region or resource it is specific to
+     * @param elementType the expected type of the elements of the list
+     * @return the remembered list or null if there is no open scope, nothing was remembered or the remembered
+     * value is not a list of the expected type
+     */
+    static public @Nullable <T> List<T> getList(@Nonnull Object owner, @Nonnull String key, @Nonnull Class<T> elementType) {
+        List<?> value = get(owner, key, List.class);
+
+        if( value == null ) {
+            return null;
+        }
+        for( Object element : value ) {
+            if( !elementType.isInstance(element) ) {
+                return null;
+            }
+        }
+        @SuppressWarnings("unchecked") List<T> list = (List<T>)value;
+
+        return list;
+    }
+
+    /**
+     * Remembers a value for the rest of the current scope. Does nothing if no scope is open.
+     * @param owner the provider the value belongs to
+     * @param key the name of the value, including any region or resource it is specific to
+     * @param value the value to remember
+     */
+    static public void put(@Nonnull Object owner, @Nonnull String key, @Nonnull Object value) {
+        RequestScope scope = current.get();
+
+        if( scope != null ) {
+            Map<String, Object> values = scope.values.get(owner);
+
+            if( values == null ) {
+                values = new HashMap<String, Object>();
+                scope.values.put(owner, values);
+            }
+            values.put(key, value);
+        }
+    }
+
+    private final Map<Object, Map<String, Object>> values = new IdentityHashMap<Object, Map<String, Object>>();
+    private int depth;
+
+    private RequestScope() { }
+
+    /**
+     * Leaves the scope; the values are discarded when the outermost operation closes it.
+     */
+    public void close() {
+        if( --depth <= 0 ) {
+            values.clear();
+            if( current.get() == this ) {
+                current.remove();
+            }
+        }
+    }
+}
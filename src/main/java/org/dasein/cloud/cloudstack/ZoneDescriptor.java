@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.dc.DataCenter;
+import org.dasein.cloud.dc.Region;
+
+/**
+ * Immutable description of one CloudStack zone as listed by <code>listZones</code>. Each zone is both a
+ * Dasein region and that region's only data center. The hypervisors of a zone are not part of the
+ * <code>listZones</code> response and are available through {@link CSCloud#getZoneHypervisors(String)}.
+ *
+ * @version 2015.10 initial version
+ * @since 2015.10
+ */
+public final class ZoneDescriptor {
+    private final String  zoneId;
+    private final String  name;
+    private final String  networkType;
+    private final boolean securityGroupsEnabled;
+    private final String  jurisdiction;
+
+    ZoneDescriptor(@Nonnull String zoneId, @Nonnull String name, @Nullable String networkType, boolean securityGroupsEnabled, @Nonnull String jurisdiction) {
+        this.zoneId = zoneId;
+        this.name = name;
+        this.networkType = networkType;
+        this.securityGroupsEnabled = securityGroupsEnabled;
+        this.jurisdiction = jurisdiction;
+    }
+
+    public @Nonnull String getZoneId() {
+        return zoneId;
+    }
+
+    public @Nonnull String getName() {
+        return name;
+    }
+
+    /**
+     * @return <code>Basic</code> or <code>Advanced</code>, if reported
+     */
+    public @Nullable String getNetworkType() {
+        return networkType;
+    }
+
+    public boolean isBasic() {
+        return "basic".equalsIgnoreCase(networkType);
+    }
+
+    public boolean isSecurityGroupsEnabled() {
+        return securityGroupsEnabled;
+    }
+
+    /**
+     * @return true if virtual machines in this zone are launched into networks, i.e. it is an advanced zone
+     */
+    public boolean supportsVlans() {
+        return !isBasic();
+    }
+
+    public @Nonnull String getJurisdiction() {
+        return jurisdiction;
+    }
+
+    /**
+     * @return a new region object describing this zone
+     */
+    public @Nonnull Region toRegion() {
+        Region region = new Region();
+
+        region.setProviderRegionId(zoneId);
+        region.setName(name);
+        region.setActive(true);
+        region.setAvailable(true);
+        region.setJurisdiction(jurisdiction);
+        return region;
+    }
+
+    /**
+     * @return a new data center object describing this zone
+     */
+    public @Nonnull DataCenter toDataCenter() {
+        DataCenter dc = new DataCenter();
+
+        dc.setActive(true);
+        dc.setAvailable(true);
+        dc.setName(name + " (DC)");
+        dc.setProviderDataCenterId(zoneId);
+        dc.setRegionId(zoneId);
+        return dc;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return zoneId + " (" + name + ", " + networkType + ")";
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack.compute;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.compute.VolumeProduct;
+import org.dasein.util.uom.storage.Gigabyte;
+import org.dasein.util.uom.storage.Storage;
+
+/**
+ * Immutable view of the disk offerings of one region. Fixed size offerings are kept sorted by size so the
+ * offering closest to a requested size is found with a binary search; custom size offerings are tracked
+ * separately. The index remembers when it was loaded so callers can refresh it before it expires.
+ *
+ * @version 2015.10 initial version
+ * @since 2015.10
+ */
+final class DiskOfferingIndex {
+    private final List<VolumeProduct>        products;
+    private final Map<String, VolumeProduct> byId;
+    private final VolumeProduct[]            sized;
+    private final long[]                     sizes;
+    private final VolumeProduct              custom;
+    private final long                       loadedAt;
+    private final AtomicBoolean              refreshing = new AtomicBoolean();
+
+    DiskOfferingIndex(@Nonnull List<VolumeProduct> products) {
+        List<VolumeProduct> fixed = new ArrayList<VolumeProduct>();
+        VolumeProduct firstCustom = null;
+
+        this.products = Collections.unmodifiableList(new ArrayList<VolumeProduct>(products));
+        this.byId = new HashMap<String, VolumeProduct>();
+        for( VolumeProduct product : products ) {
+            byId.put(product.getProviderProductId(), product);
+            if( getSize(product) < 1L ) {
+                if( firstCustom == null ) {
+                    firstCustom = product;
+                }
+            }
+            else {
+                fixed.add(product);
+            }
+        }
+        // stable, so the first listed offering wins among offerings of the same size
+        Collections.sort(fixed, new Comparator<VolumeProduct>() {
+            @Override
+            public int compare(VolumeProduct a, VolumeProduct b) {
+                long sa = getSize(a), sb = getSize(b);
+
+                return ( sa < sb ? -1 : (sa == sb ? 0 : 1) );
+            }
+        });
+        this.sized = fixed.toArray(new VolumeProduct[fixed.size()]);
+        this.sizes = new long[sized.length];
+        for( int i = 0; i < sized.length; i++ ) {
+            sizes[i] = getSize(sized[i]);
+        }
+        this.custom = firstCustom;
+        this.loadedAt = System.currentTimeMillis();
+    }
+
+    static private long getSize(@Nonnull VolumeProduct product) {
+        Storage<Gigabyte> size = product.getMinVolumeSize();
+
+        return ( size == null ? 0L : size.getQuantity().longValue() );
+    }
+
+    /**
+     * @return all offerings in the order the cloud listed them
+     */
+    @Nonnull List<VolumeProduct> getProducts() {
+        return products;
+    }
+
+    @Nullable VolumeProduct getProduct(@Nonnull String productId) {
+        return byId.get(productId);
+    }
+
+    /**
+     * @return the first offering that lets the caller pick the volume size, if any
+     */
+    @Nullable VolumeProduct getCustom() {
+        return custom;
+    }
+
+    /**
+     * @param size the size in gigabytes
+     * @return the fixed size offering of exactly that size, if any
+     */
+    @Nullable VolumeProduct getExact(long size) {
+        int i = ceiling(size);
+
+        return ( i < sizes.length && sizes[i] == size ? sized[i] : null );
+    }
+
+    /**
+     * @param size the size in gigabytes, 0 for the smallest offering
+     * @return the smallest fixed size offering at least as large as the size or, if none is large enough, the largest one
+     */
+    @Nullable VolumeProduct getNearest(long size) {
+        if( sized.length == 0 ) {
+            return null;
+        }
+        int i = ceiling(size);
+
+        return ( i < sized.length ? sized[i] : sized[sized.length - 1] );
+    }
+
+    private int ceiling(long size) {
+        int low = 0, high = sizes.length;
+
+        while( low < high ) {
+            int mid = (low + high) >>> 1;
+
+            if( sizes[mid] < size ) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    long getAge() {
+        return ( System.currentTimeMillis() - loadedAt );
+    }
+
+    /**
+     * Claims the right to refresh this index so that only one caller reloads it.
+     * @return true if the caller should reload the index
+     */
+    boolean startRefresh() {
+        return refreshing.compareAndSet(false, true);
+    }
+
+    void refreshFailed() {
+        refreshing.set(false);
+    }
+}
@@ -19,11 +19,21 @@
 package org.dasein.cloud.cloudstack.compute;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
@@ -36,6 +46,7 @@ import org.dasein.cloud.cloudstack.CSCloud;
 import org.dasein.cloud.cloudstack.CSException;
 import org.dasein.cloud.cloudstack.CSMethod;
 import org.dasein.cloud.cloudstack.CSVersion;
+import org.dasein.cloud.cloudstack.JobWatcher;
 import org.dasein.cloud.cloudstack.Param;
 import org.dasein.cloud.compute.AbstractSnapshotSupport;
 import org.dasein.cloud.compute.Snapshot;
@@ -45,7 +56,14 @@ import org.dasein.cloud.compute.SnapshotState;
 import org.dasein.cloud.compute.Volume;
 import org.dasein.cloud.compute.VolumeState;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
 import org.dasein.util.CalendarWrapper;
+import org.dasein.util.Jiterator;
+import org.dasein.util.JiteratorPopulator;
+import org.dasein.util.PopulatorThread;
+import org.dasein.util.uom.time.Minute;
+import org.dasein.util.uom.time.TimePeriod;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -71,7 +89,7 @@ public class Snapshots extends AbstractSnapshotSupport {
     public @Nonnull String createSnapshot(@Nonnull SnapshotCreateOptions options) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Snapshot.createSnapshot");
         try {
-            String volumeId = options.getVolumeId();
+            final String volumeId = options.getVolumeId();
 
             if( volumeId == null ) {
                 throw new OperationNotSupportedException("Snapshot copying is not supported in " + getProvider().getCloudName());
@@ -84,24 +102,37 @@ public class Snapshots extends AbstractSnapshotSupport {
             if( volume.getProviderVirtualMachineId() == null ) {
                 throw new CloudException("You must attach this volume before you can snapshot it.");
             }
-            long timeout = System.currentTimeMillis() +(CalendarWrapper.MINUTE * 10L);
+            final Volume[] current = new Volume[] { volume };
+            final boolean[] refresh = new boolean[1];
 
-            while( timeout > System.currentTimeMillis() ) {
-                if( VolumeState.AVAILABLE.equals(volume.getCurrentState()) ) {
-                    break;
-                }
-                if( VolumeState.DELETED.equals(volume.getCurrentState()) ) {
-                    throw new CloudException("Volume " + volumeId + " disappeared before a snapshot could be taken");
-                }
-                try { Thread.sleep(15000L); }
-                catch( InterruptedException ignore ) { }
-                try { volume = provider.getComputeServices().getVolumeSupport().getVolume(volumeId); }
-                catch( Throwable ignore ) { }
-                if( volume == null ) {
-                    throw new CloudException("Volume " + volumeId + " disappeared before a snapshot could be taken");
+            JobWatcher.awaitState(new JobWatcher.StateProbe<Volume>() {
+                @Override
+                public Volume check() throws CloudException, InternalException {
+                    if( refresh[0] ) {
+                        try { current[0] = provider.getComputeServices().getVolumeSupport().getVolume(volumeId); }
+                        catch( Throwable ignore ) { }
+                    }
+                    refresh[0] = true;
+                    if( current[0] == null || VolumeState.DELETED.equals(current[0].getCurrentState()) ) {
+                        throw new CloudException("Volume " + volumeId + " disappeared before a snapshot could be taken");
+                    }
+                    return ( VolumeState.AVAILABLE.equals(current[0].getCurrentState()) ? current[0] : null );
                 }
-            }
+            }, 15000L, CalendarWrapper.MINUTE * 10L);
+            return snapshot(options, volumeId);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
+    /**
+     * Takes the snapshot of a volume that is known to be attached and available.
+     */
+    private @Nonnull String snapshot(@Nonnull SnapshotCreateOptions options, final @Nonnull String volumeId) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "Snapshot.snapshot");
+        try {
+            long timeout;
             Document doc;
 
             try {
@@ -111,7 +142,7 @@ public class Snapshots extends AbstractSnapshotSupport {
                 int code = e.getHttpCode();
 
                 if( code == 431 && e.getMessage() != null && e.getMessage().contains("no change since last snapshot")) {
-                    Snapshot s = getLatestSnapshot(volumeId);
+                    Snapshot s = getLatestSnapshot(volumeId, false);
 
                     if( s == null ) {
                         throw e;
@@ -123,25 +154,31 @@ public class Snapshots extends AbstractSnapshotSupport {
                         // a couple of problems here...
                         // this is not really an error condition, so we should look for the current in-progress snapshot
                         // but cloud.com does not list in-progress snapshots
-                        long then = (System.currentTimeMillis() - (CalendarWrapper.MINUTE*9));
-                        long now = System.currentTimeMillis() - CalendarWrapper.MINUTE;
-                        Snapshot wtf = null;
+                        final long then = (System.currentTimeMillis() - (CalendarWrapper.MINUTE*9));
+                        final long now = System.currentTimeMillis() - CalendarWrapper.MINUTE;
+                        final Snapshot[] wtf = new Snapshot[1];
 
                         timeout = (now + (CalendarWrapper.MINUTE*20));
-                        while( System.currentTimeMillis() < timeout ) {
-                            Snapshot latest = getLatestSnapshot(volumeId);
-
-                            if( latest != null && latest.getSnapshotTimestamp() >= now ) {
-                                return latest.getProviderSnapshotId();
-                            }
-                            else if( latest != null && latest.getSnapshotTimestamp() >= then ) {
-                                wtf = latest;
+                        Snapshot found = JobWatcher.awaitState(new JobWatcher.StateProbe<Snapshot>() {
+                            @Override
+                            public Snapshot check() throws CloudException, InternalException {
+                                Snapshot latest = getLatestSnapshot(volumeId, true);
+
+                                if( latest != null && latest.getSnapshotTimestamp() >= now ) {
+                                    return latest;
+                                }
+                                else if( latest != null && latest.getSnapshotTimestamp() >= then ) {
+                                    wtf[0] = latest;
+                                }
+                                return null;
                             }
-                            try { Thread.sleep(20000L); }
-                            catch( InterruptedException ignore ) { /* ignore */ }
+                        }, 20000L, timeout - System.currentTimeMillis());
+
+                        if( found != null ) {
+                            return found.getProviderSnapshotId();
                         }
-                        if( wtf != null ) {
-                            return wtf.getProviderSnapshotId();
+                        if( wtf[0] != null ) {
+                            return wtf[0].getProviderSnapshotId();
                         }
                         return createSnapshot(options);
                     }
@@ -201,7 +238,7 @@ public class Snapshots extends AbstractSnapshotSupport {
             catch( CSException e ) {
                 if( e.getHttpCode() == 431 ) {
                     logger.warn("CSCloud opted not to make a snapshot: " + e.getMessage());
-                    Snapshot s = getLatestSnapshot(volumeId);
+                    Snapshot s = getLatestSnapshot(volumeId, false);
 
                     if( s == null ) {
                         throw e;
@@ -214,7 +251,7 @@ public class Snapshots extends AbstractSnapshotSupport {
                 String msg = e.getMessage();
 
                 if( msg != null && msg.contains("no change since last snapshot") ) {
-                    Snapshot s = getLatestSnapshot(volumeId);
+                    Snapshot s = getLatestSnapshot(volumeId, false);
 
                     if( s == null ) {
                         throw e;
@@ -226,6 +263,7 @@ public class Snapshots extends AbstractSnapshotSupport {
             if( snapshotId == null ) {
                 throw new CloudException("Failed to create a snapshot");
             }
+            getLatestSnapshots().invalidate(volumeId);
             
             // Set tags
             List<Tag> tags = new ArrayList<Tag>();
@@ -248,6 +286,135 @@ public class Snapshots extends AbstractSnapshotSupport {
         }
     }
 
+    /**
+     * Outcome of snapshotting one volume through {@link #createSnapshots(Collection, int)}.
+     */
+    static public class SnapshotResult {
+        public String    volumeId;
+        public String    snapshotId;
+        public Exception error;
+
+        public String toString() {return "Snapshot of " + volumeId + ": " + (error == null ? snapshotId : error.getMessage());}
+    }
+
+    /**
+     * Snapshots many volumes of the current zone at once. The volume states are checked with one volume listing
+     * (repeated every 15 seconds for volumes that are not yet available) and at most <code>maxConcurrent</code>
+     * snapshots are in flight at any time. The jobs are tracked together by the provider's {@link org.dasein.cloud.cloudstack.JobWatcher}.
+     * @param options the snapshots to take, one per volume
+     * @param maxConcurrent the maximum number of snapshots to take concurrently in this zone
+     * @return the result for each volume, in the order the snapshots complete
+     * @throws CloudException an error occurred with the cloud provider while listing the volumes
+     * @throws InternalException an error occurred within Dasein Cloud while starting the snapshots
+     */
+    public @Nonnull Iterable<SnapshotResult> createSnapshots(@Nonnull final Collection<SnapshotCreateOptions> options, final int maxConcurrent) throws InternalException, CloudException {
+        if( maxConcurrent < 1 ) {
+            throw new InternalException("At least one concurrent snapshot must be allowed");
+        }
+        provider.hold();
+        PopulatorThread<SnapshotResult> populator = new PopulatorThread<SnapshotResult>(new JiteratorPopulator<SnapshotResult>() {
+            @Override
+            public void populate(@Nonnull Jiterator<SnapshotResult> iterator) throws Exception {
+                APITrace.begin(getProvider(), "Snapshot.createSnapshots");
+                try {
+                    final BlockingQueue<SnapshotResult> completed = new LinkedBlockingQueue<SnapshotResult>();
+                    List<SnapshotCreateOptions> waiting = new ArrayList<SnapshotCreateOptions>(options);
+                    long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
+                    int inFlight = 0;
+
+                    while( true ) {
+                        Map<String, Volume> volumes = indexVolumes(provider.getComputeServices().getVolumeSupport().listVolumes());
+                        List<SnapshotCreateOptions> ready = new ArrayList<SnapshotCreateOptions>();
+                        List<SnapshotCreateOptions> notReady = new ArrayList<SnapshotCreateOptions>();
+
+                        for( SnapshotCreateOptions opts : waiting ) {
+                            String volumeId = opts.getVolumeId();
+                            Volume volume = ( volumeId == null ? null : volumes.get(volumeId) );
+
+                            if( volumeId == null ) {
+                                iterator.push(toResult(null, null, new OperationNotSupportedException("Snapshot copying is not supported in " + getProvider().getCloudName())));
+                            }
+                            else if( volume == null || VolumeState.DELETED.equals(volume.getCurrentState()) ) {
+                                iterator.push(toResult(volumeId, null, new CloudException("No such volume: " + volumeId)));
+                            }
+                            else if( volume.getProviderVirtualMachineId() == null ) {
+                                iterator.push(toResult(volumeId, null, new CloudException("You must attach this volume before you can snapshot it.")));
+                            }
+                            else if( VolumeState.AVAILABLE.equals(volume.getCurrentState()) ) {
+                                ready.add(opts);
+                            }
+                            else {
+                                notReady.add(opts);
+                            }
+                        }
+                        for( final SnapshotCreateOptions opts : ready ) {
+                            while( inFlight >= maxConcurrent ) {
+                                iterator.push(completed.take());
+                                inFlight--;
+                            }
+                            final String volumeId = opts.getVolumeId();
+
+                            inFlight++;
+                            provider.submit(new Callable<Void>() {
+                                @Override
+                                public Void call() throws Exception {
+                                    try {
+                                        completed.add(toResult(volumeId, snapshot(opts, volumeId), null));
+                                    }
+                                    catch( Exception e ) {
+                                        completed.add(toResult(volumeId, null, e));
+                                    }
+                                    return null;
+                                }
+                            });
+                        }
+                        waiting = notReady;
+                        if( waiting.isEmpty() ) {
+                            break;
+                        }
+                        if( System.currentTimeMillis() > timeout ) {
+                            for( SnapshotCreateOptions opts : waiting ) {
+                                iterator.push(toResult(opts.getVolumeId(), null, new CloudException("Volume " + opts.getVolumeId() + " did not become available for a snapshot")));
+                            }
+                            break;
+                        }
+                        // report whatever completes while the remaining volumes settle
+                        long next = System.currentTimeMillis() + 15000L;
+
+                        while( System.currentTimeMillis() < next ) {
+                            SnapshotResult result = completed.poll(next - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+
+                            if( result != null ) {
+                                iterator.push(result);
+                                inFlight--;
+                            }
+                        }
+                    }
+                    while( inFlight > 0 ) {
+                        iterator.push(completed.take());
+                        inFlight--;
+                    }
+                }
+                finally {
+                    APITrace.end();
+                    provider.release();
+                }
+            }
+        });
+
+        populator.populate();
+        return populator.getResult();
+    }
+
+    static private @Nonnull SnapshotResult toResult(@Nullable String volumeId, @Nullable String snapshotId, @Nullable Exception error) {
+        SnapshotResult result = new SnapshotResult();
+
+        result.volumeId = volumeId;
+        result.snapshotId = snapshotId;
+        result.error = error;
+        return result;
+    }
+
     private transient volatile CSSnapshotCapabilities capabilities;
     @Nonnull
     @Override
@@ -265,6 +432,7 @@ public class Snapshots extends AbstractSnapshotSupport {
         try {
             Document doc = new CSMethod(provider).get(DELETE_SNAPSHOT, new Param("id", snapshotId));
             provider.waitForJob(doc, "Delete Snapshot");
+            getLatestSnapshots().invalidateSnapshot(snapshotId);
         }
         finally {
             APITrace.end();
@@ -331,10 +499,11 @@ public class Snapshots extends AbstractSnapshotSupport {
     public @Nonnull Iterable<Snapshot> listSnapshots() throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Snapshot.listSnapshots");
         try {
-            Iterable<Volume> volumes = provider.getComputeServices().getVolumeSupport().listVolumes();
             CSMethod method = new CSMethod(provider);
             Document doc = method.get(LIST_SNAPSHOTS, new Param("zoneId", getContext().getRegionId()));
             ArrayList<Snapshot> snapshots = new ArrayList<Snapshot>();
+            List<Snapshot> unsized = new ArrayList<Snapshot>();
+            Future<Map<String, Volume>> volumes = null;
 
             int numPages = 1;
             NodeList nodes = doc.getElementsByTagName("count");
@@ -359,14 +528,33 @@ public class Snapshots extends AbstractSnapshotSupport {
                     Node s = matches.item(i);
 
                     if( s != null ) {
-                        Snapshot snapshot = toSnapshot(s, getContext(), volumes);
+                        Snapshot snapshot = toSnapshot(s, getContext());
 
                         if( snapshot != null ) {
                             snapshots.add(snapshot);
+                            if( snapshot.getSizeInGb() < 1 ) {
+                                // older clouds do not report the snapshot size, so the volumes are listed while we keep paging
+                                if( volumes == null ) {
+                                    volumes = provider.submit(new Callable<Map<String, Volume>>() {
+                                        @Override
+                                        public Map<String, Volume> call() throws Exception {
+                                            return indexVolumes(provider.getComputeServices().getVolumeSupport().listVolumes());
+                                        }
+                                    });
+                                }
+                                unsized.add(snapshot);
+                            }
                         }
                     }
                 }
             }
+            if( volumes != null ) {
+                Map<String, Volume> index = provider.await(volumes);
+
+                for( Snapshot snapshot : unsized ) {
+                    setSize(snapshot, index);
+                }
+            }
             return snapshots;
         }
         finally {
@@ -374,16 +562,102 @@ public class Snapshots extends AbstractSnapshotSupport {
         }
     }
 
-    private Snapshot getLatestSnapshot(String forVolumeId) throws InternalException, CloudException {
-        Volume volume = provider.getComputeServices().getVolumeSupport().getVolume(forVolumeId);
-        List<Volume> volumes;
-        if( volume == null ) {
-            volumes = Collections.emptyList();
+    /**
+     * The latest snapshot of each volume looked up recently, kept in one cache entry per account and region.
+     * Each lookup, including one that found no snapshot, is valid for 30 seconds.
+     */
+    static private class LatestSnapshots {
+        static private final long MAX_AGE = 30000L;
+
+        static private class Lookup {
+            private final Snapshot snapshot;
+            private final long     timestamp = System.currentTimeMillis();
+
+            private Lookup(@Nullable Snapshot snapshot) {
+                this.snapshot = snapshot;
+            }
         }
-        else {
-            volumes = Collections.singletonList(volume);
+
+        private final ConcurrentMap<String, Lookup> lookups = new ConcurrentHashMap<String, Lookup>();
+
+        /**
+         * @return the last lookup of the volume or null if there is none within the last 30 seconds
+         */
+        private @Nullable Lookup get(@Nonnull String volumeId) {
+            Lookup lookup = lookups.get(volumeId);
+
+            if( lookup != null && System.currentTimeMillis() - lookup.timestamp > MAX_AGE ) {
+                lookups.remove(volumeId, lookup);
+                return null;
+            }
+            return lookup;
+        }
+
+        private void put(@Nonnull String volumeId, @Nullable Snapshot snapshot) {
+            lookups.put(volumeId, new Lookup(snapshot));
+        }
+
+        private void invalidate(@Nonnull String volumeId) {
+            lookups.remove(volumeId);
+        }
+
+        /**
+         * Forgets every lookup that found the specified snapshot.
+         */
+        private void invalidateSnapshot(@Nonnull String snapshotId) {
+            for( Map.Entry<String, Lookup> entry : lookups.entrySet() ) {
+                Snapshot snapshot = entry.getValue().snapshot;
+
+                if( snapshot != null && snapshotId.equals(snapshot.getProviderSnapshotId()) ) {
+                    lookups.remove(entry.getKey(), entry.getValue());
+                }
+            }
         }
-        Document doc = new CSMethod(provider).get(LIST_SNAPSHOTS, new Param("zoneId", getContext().getRegionId()), new Param("volumeId", forVolumeId));
+    }
+
+    private @Nonnull LatestSnapshots getLatestSnapshots() {
+        Cache<LatestSnapshots> cache = Cache.getInstance(provider, "latestSnapshots", LatestSnapshots.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Minute>(15, TimePeriod.MINUTE));
+        Iterable<LatestSnapshots> cached = cache.get(getContext());
+
+        if( cached != null ) {
+            Iterator<LatestSnapshots> it = cached.iterator();
+
+            if( it.hasNext() ) {
+                return it.next();
+            }
+        }
+        LatestSnapshots latest = new LatestSnapshots();
+
+        cache.put(getContext(), Collections.singletonList(latest));
+        return latest;
+    }
+
+    /**
+     * Finds the most recent snapshot of a volume. On CloudStack 4 the snapshots come back newest first, so a single
+     * row is requested; older clouds list all snapshots of the volume. Results are kept for 30 seconds.
+     * @param forVolumeId the volume whose snapshots are searched
+     * @param fresh true to bypass the cached result, as when polling for a new snapshot
+     * @return the latest snapshot or null if the volume has none
+     */
+    private @Nullable Snapshot getLatestSnapshot(@Nonnull String forVolumeId, boolean fresh) throws InternalException, CloudException {
+        LatestSnapshots cache = getLatestSnapshots();
+
+        if( !fresh ) {
+            LatestSnapshots.Lookup cached = cache.get(forVolumeId);
+
+            if( cached != null ) {
+                return cached.snapshot;
+            }
+        }
+        List<Param> params = new ArrayList<Param>();
+
+        params.add(new Param("zoneId", getContext().getRegionId()));
+        params.add(new Param("volumeId", forVolumeId));
+        if( provider.getVersion().greaterThan(CSVersion.CS3) ) {
+            params.add(new Param("pagesize", "1"));
+            params.add(new Param("page", "1"));
+        }
+        Document doc = new CSMethod(provider).get(LIST_SNAPSHOTS, params);
         Snapshot latest = null;
         
         NodeList matches = doc.getElementsByTagName("snapshot");
@@ -391,7 +665,7 @@ public class Snapshots extends AbstractSnapshotSupport {
             Node s = matches.item(i);
 
             if( s != null ) {
-                Snapshot snapshot = toSnapshot(s, getContext(), volumes);
+                Snapshot snapshot = toSnapshot(s, getContext());
                 
                 if( snapshot != null && snapshot.getVolumeId() != null && snapshot.getVolumeId().equals(forVolumeId) ) {
                     if( latest == null || snapshot.getSnapshotTimestamp() > latest.getSnapshotTimestamp() ) {
@@ -400,10 +674,45 @@ public class Snapshots extends AbstractSnapshotSupport {
                 }
             }
         }
+        if( latest != null && latest.getSizeInGb() < 1 ) {
+            Volume volume = provider.getComputeServices().getVolumeSupport().getVolume(forVolumeId);
+
+            setSize(latest, indexVolumes(volume == null ? Collections.<Volume>emptyList() : Collections.singletonList(volume)));
+        }
+        cache.put(forVolumeId, latest);
         return latest;
     }
 
-    private @Nullable Snapshot toSnapshot(@Nullable Node node, @Nonnull ProviderContext ctx, @Nonnull Iterable<Volume> volumes) throws CloudException, InternalException {
+    static private @Nonnull Map<String, Volume> indexVolumes(@Nonnull Iterable<Volume> volumes) {
+        Map<String, Volume> index = new HashMap<String, Volume>();
+
+        for( Volume volume : volumes ) {
+            index.put(volume.getProviderVolumeId(), volume);
+        }
+        return index;
+    }
+
+    /**
+     * Takes the size of a snapshot the cloud did not report a size for from its volume, defaulting to 1GB.
+     */
+    static private void setSize(@Nonnull Snapshot snapshot, @Nonnull Map<String, Volume> volumesById) {
+        if( snapshot.getSizeInGb() > 0 ) {
+            return;
+        }
+        Volume v = ( snapshot.getVolumeId() == null ? null : volumesById.get(snapshot.getVolumeId()) );
+
+        if( v != null && v.getSize() != null && v.getSize().intValue() > 0 ) {
+            snapshot.setSizeInGb(v.getSize().intValue());
+        }
+        else {
+            snapshot.setSizeInGb(1);
+        }
+    }
+
+    /**
+     * Maps a snapshot node. The size is left at 0 if the cloud does not report it, see {@link #setSize(Snapshot, Map)}.
+     */
+    private @Nullable Snapshot toSnapshot(@Nullable Node node, @Nonnull ProviderContext ctx) throws CloudException, InternalException {
         if( node == null ) {
             return null;
         }
@@ -415,7 +724,6 @@ public class Snapshots extends AbstractSnapshotSupport {
         snapshot.setOwner(ctx.getAccountNumber());
         snapshot.setProgress("100%");
         snapshot.setRegionId(ctx.getRegionId());
-        snapshot.setSizeInGb(1);
         for( int i=0; i<attrs.getLength(); i++ ) {
             Node attr = attrs.item(i);
 
@@ -430,19 +738,18 @@ public class Snapshots extends AbstractSnapshotSupport {
             }
             else if( name.equalsIgnoreCase("volumeid") ) {
                 snapshot.setVolumeId(value);
-                if( value != null ) {
-                    Volume v = null;
+            }
+            else if( value != null && name.equalsIgnoreCase("virtualsize") ) {
+                try {
+                    long gb = Long.parseLong(value.trim()) / 1073741824L;
 
-                    for( Volume volume : volumes ) {
-                        if( volume.getProviderVolumeId().equals(value) ) {
-                            v = volume;
-                            break;
-                        }
-                    }
-                    if( v != null ) {
-                        snapshot.setSizeInGb(v.getSize().intValue());
+                    if( gb > 0 ) {
+                        snapshot.setSizeInGb(( int ) gb);
                     }
                 }
+                catch( NumberFormatException ignore ) {
+                    // fall back to the volume size
+                }
             }
             else if( name.equalsIgnoreCase("name") ) {
                 snapshot.setName(value);
@@ -0,0 +1,477 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack.compute;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+
+/**
+ * Keyword based platform, architecture and software classification of template and VM names. All keywords
+ * are compiled once into Aho-Corasick automata, so classifying a string is a single pass over its characters
+ * no matter how many keywords are known. Results for templates are memoized by template id, keeping the most
+ * recently used ones.
+ *
+ * @version 2015.10 initial version
+ * @since 2015.10
+ */
+final class TemplateClassifier {
+
+    /**
+     * Result of classifying a single template.
+     */
+    static final class Classification {
+        private final String      osTypeName;
+        private final String      name;
+        private final String      description;
+        private final Platform    platform;
+        private final Architecture architecture;
+        private final String      software;
+
+        private Classification(String osTypeName, String name, String description, Platform platform, Architecture architecture, String software) {
+            this.osTypeName = osTypeName;
+            this.name = name;
+            this.description = description;
+            this.platform = platform;
+            this.architecture = architecture;
+            this.software = software;
+        }
+
+        /**
+         * @return the best architecture guess, to be used when the template does not report its bits
+         */
+        @Nonnull Architecture getArchitecture() {
+            return architecture;
+        }
+
+        @Nonnull Platform getPlatform() {
+            return platform;
+        }
+
+        @Nonnull String getSoftware() {
+            return software;
+        }
+
+        private boolean matches(String osTypeName, String name, String description) {
+            return same(this.osTypeName, osTypeName) && same(this.name, name) && same(this.description, description);
+        }
+
+        static private boolean same(String a, String b) {
+            return ( a == null ? b == null : a.equals(b) );
+        }
+    }
+
+    /**
+     * Deterministic Aho-Corasick automaton over 7-bit characters for up to 64 keywords. Scanning returns
+     * a bit mask of every keyword occurring in the text. An automaton for whole words only reports keywords
+     * that are neither preceded nor followed by a letter, so "win" matches "win2012" but not "darwin".
+     */
+    static private final class Automaton {
+        static private final int ALPHABET = 128;
+
+        private final int[][]  next;
+        private final long[]   output;
+        private final int[]    lengths;
+        private final boolean  ignoreCase;
+        private final boolean  wholeWords;
+
+        private Automaton(@Nonnull String[] keywords, boolean ignoreCase) {
+            this(keywords, ignoreCase, false);
+        }
+
+        private Automaton(@Nonnull String[] keywords, boolean ignoreCase, boolean wholeWords) {
+            if( keywords.length > 64 ) {
+                throw new IllegalArgumentException("Too many keywords: " + keywords.length);
+            }
+            this.ignoreCase = ignoreCase;
+            this.wholeWords = wholeWords;
+            lengths = new int[keywords.length];
+            for( int k = 0; k < keywords.length; k++ ) {
+                lengths[k] = keywords[k].length();
+            }
+
+            List<int[]> trie = new ArrayList<int[]>();
+            List<Long> out = new ArrayList<Long>();
+
+            trie.add(new int[ALPHABET]);
+            out.add(0L);
+            for( int k = 0; k < keywords.length; k++ ) {
+                String keyword = ( ignoreCase ? keywords[k].toLowerCase() : keywords[k] );
+                int state = 0;
+
+                for( int i = 0; i < keyword.length(); i++ ) {
+                    char c = keyword.charAt(i);
+
+                    if( c >= ALPHABET ) {
+                        throw new IllegalArgumentException("Unsupported character in keyword: " + keyword);
+                    }
+                    int target = trie.get(state)[c];
+
+                    if( target == 0 ) {
+                        target = trie.size();
+                        trie.add(new int[ALPHABET]);
+                        out.add(0L);
+                        trie.get(state)[c] = target;
+                    }
+                    state = target;
+                }
+                out.set(state, out.get(state) | ( 1L << k ));
+            }
+            next = trie.toArray(new int[trie.size()][]);
+            output = new long[next.length];
+            for( int i = 0; i < output.length; i++ ) {
+                output[i] = out.get(i);
+            }
+
+            // breadth first construction of the failure links, folded into the transition table
+            int[] fail = new int[next.length];
+            ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+
+            for( int c = 0; c < ALPHABET; c++ ) {
+                if( next[0][c] != 0 ) {
+                    queue.add(next[0][c]);
+                }
+            }
+            while( !queue.isEmpty() ) {
+                int state = queue.poll();
+
+                output[state] |= output[fail[state]];
+                for( int c = 0; c < ALPHABET; c++ ) {
+                    int target = next[state][c];
+
+                    if( target != 0 ) {
+                        fail[target] = next[fail[state]][c];
+                        queue.add(target);
+                    }
+                    else {
+                        next[state][c] = next[fail[state]][c];
+                    }
+                }
+            }
+        }
+
+        long scan(@Nullable String text) {
+            return ( text == null ? 0L : scan(text, 0, text.length()) );
+        }
+
+        long scan(@Nonnull String text, int from, int to) {
+            long found = 0L;
+            int state = 0;
+
+            for( int i = from; i < to; i++ ) {
+                char c = text.charAt(i);
+
+                if( c >= ALPHABET ) {
+                    state = 0;
+                    continue;
+                }
+                if( ignoreCase && c >= 'A' && c <= 'Z' ) {
+                    c = ( char ) ( c + ( 'a' - 'A' ) );
+                }
+                state = next[state][c];
+                if( !wholeWords ) {
+                    found |= output[state];
+                }
+                else if( output[state] != 0L ) {
+                    found |= wholeWords(text, from, to, i, output[state]);
+                }
+            }
+            return found;
+        }
+
+        /**
+         * @return those of the keywords ending at <code>end</code> that are not part of a longer word
+         */
+        private long wholeWords(@Nonnull String text, int from, int to, int end, long keywords) {
+            if( end + 1 < to && Character.isLetter(text.charAt(end + 1)) ) {
+                return 0L;
+            }
+            long found = 0L;
+
+            for( int k = 0; k < lengths.length; k++ ) {
+                if( has(keywords, k) ) {
+                    int start = end - lengths[k] + 1;
+
+                    if( start == from || !Character.isLetter(text.charAt(start - 1)) ) {
+                        found |= ( 1L << k );
+                    }
+                }
+            }
+            return found;
+        }
+    }
+
+    // architecture markers are matched case sensitively, as they always have been
+    static private final int ARCH_X64    = 0;
+    static private final int ARCH_X32    = 1;
+    static private final int ARCH_64_BIT = 2;
+    static private final int ARCH_32_BIT = 3;
+    static private final int ARCH_I386   = 4;
+    static private final int ARCH_64     = 5;
+    static private final int ARCH_32     = 6;
+
+    static private final Automaton ARCHITECTURES = new Automaton(new String[] {
+            "x64", "x32", "64 bit", "32 bit", "i386", "64", "32"
+    }, false);
+
+    static private final int SQL_SERVER      = 0;
+    static private final int SQL_SERVER_2008 = 1;
+    static private final int SQL_SERVER_2005 = 2;
+
+    static private final Automaton SOFTWARE = new Automaton(new String[] {
+            "sql server", "sql server 2008", "sql server 2005"
+    }, true);
+
+    // distribution keywords we can decide on without consulting Platform.guess(); the platform at index i
+    // is PLATFORMS[i]. Generic words such as "linux" or "bsd" are deliberately left out.
+    static private final String[] PLATFORM_KEYWORDS = {
+            "centos", "ubuntu", "fedora", "windows", "red hat", "redhat", "red-hat", "rhel", "debian", "suse", "solaris", "freebsd", "openbsd"
+    };
+    static private final Platform[] PLATFORMS = {
+            Platform.CENT_OS, Platform.UBUNTU, Platform.FEDORA_CORE, Platform.WINDOWS, Platform.RHEL, Platform.RHEL, Platform.RHEL, Platform.RHEL, Platform.DEBIAN, Platform.SUSE, Platform.SOLARIS, Platform.FREE_BSD, Platform.OPEN_BSD
+    };
+    static private final Automaton PLATFORM = new Automaton(PLATFORM_KEYWORDS, true);
+
+    // abbreviations CloudStack operators commonly use for Windows templates, matched as whole words
+    static private final Automaton WINDOWS = new Automaton(new String[] {
+            "win", "w2k", "w2008", "w2012"
+    }, true, true);
+
+    static private final int MAX_MEMO_SIZE = 20000;
+
+    // access ordered, so the least recently used template is dropped once the memo is full
+    static private final Map<String, Classification> memo = new LinkedHashMap<String, Classification>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Classification> eldest) {
+            return ( size() > MAX_MEMO_SIZE );
+        }
+    };
+
+    private TemplateClassifier() { }
+
+    /**
+     * Classifies a template from its OS type name, name and display text. The result is memoized by template id
+     * for as long as those three values stay the same.
+     * @param templateId the template id, or null to skip memoization
+     * @param osTypeName the template's ostypename
+     * @param name the template's name
+     * @param description the template's display text
+     * @return the classification of the template
+     */
+    static @Nonnull Classification classify(@Nullable String templateId, @Nullable String osTypeName, @Nullable String name, @Nullable String description) {
+        if( templateId != null ) {
+            Classification c;
+
+            synchronized( memo ) {
+                c = memo.get(templateId);
+            }
+            if( c != null && c.matches(osTypeName, name, description) ) {
+                return c;
+            }
+        }
+        Architecture architecture = Architecture.I64;
+        Architecture hint = getExplicitArchitecture(name);
+
+        if( hint != null ) {
+            architecture = hint;
+        }
+        hint = getExplicitArchitecture(description);
+        if( hint != null ) {
+            architecture = hint;
+        }
+        long bits = ARCHITECTURES.scan(osTypeName);
+
+        if( has(bits, ARCH_64) ) {
+            architecture = Architecture.I64;
+        }
+        else if( has(bits, ARCH_32) ) {
+            architecture = Architecture.I32;
+        }
+        Platform platform = Platform.UNKNOWN;
+
+        if( osTypeName != null ) {
+            platform = getPlatform(osTypeName);
+        }
+        if( Platform.UNKNOWN.equals(platform) ) {
+            platform = getPlatform(name);
+        }
+        if( Platform.UNKNOWN.equals(platform) ) {
+            platform = getPlatform(description);
+        }
+        Classification c = new Classification(osTypeName, name, description, platform, architecture, getSoftware(name + " " + description));
+
+        if( templateId != null ) {
+            synchronized( memo ) {
+                memo.put(templateId, c);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Guesses the architecture from a free form description, defaulting to 64 bit.
+     * @param description the text to classify
+     * @return the guessed architecture
+     */
+    static @Nonnull Architecture getArchitecture(@Nullable String description) {
+        long bits = ARCHITECTURES.scan(description);
+
+        if( has(bits, ARCH_X64) ) {
+            return Architecture.I64;
+        }
+        else if( has(bits, ARCH_X32) ) {
+            return Architecture.I32;
+        }
+        else if( has(bits, ARCH_64_BIT) ) {
+            return Architecture.I64;
+        }
+        else if( has(bits, ARCH_32_BIT) ) {
+            return Architecture.I32;
+        }
+        else if( has(bits, ARCH_I386) ) {
+            return Architecture.I32;
+        }
+        else if( has(bits, ARCH_64) ) {
+            return Architecture.I64;
+        }
+        else if( has(bits, ARCH_32) ) {
+            return Architecture.I32;
+        }
+        return Architecture.I64;
+    }
+
+    /**
+     * Guesses the platform from a name or description. A single distribution keyword is decided directly,
+     * anything ambiguous or unknown is left to {@link Platform#guess(String)}.
+     * @param text the text to classify
+     * @return the guessed platform
+     */
+    static @Nonnull Platform getPlatform(@Nullable String text) {
+        if( text == null ) {
+            return Platform.UNKNOWN;
+        }
+        long bits = PLATFORM.scan(text);
+        Platform found = null;
+
+        for( int i = 0; bits != 0L && i < PLATFORMS.length; i++ ) {
+            if( has(bits, i) ) {
+                if( found != null && !found.equals(PLATFORMS[i]) ) {
+                    found = null;
+                    break;
+                }
+                found = PLATFORMS[i];
+                bits &= ~( 1L << i );
+            }
+        }
+        if( found != null ) {
+            return found;
+        }
+        Platform platform = Platform.guess(text);
+
+        return ( platform == null ? Platform.UNKNOWN : platform );
+    }
+
+    /**
+     * Guesses the platform of a VM from its template name, recognizing common Windows abbreviations
+     * when no other platform is found.
+     * @param templateName the template name
+     * @return the guessed platform
+     */
+    static @Nonnull Platform getPlatformForTemplateName(@Nullable String templateName) {
+        Platform platform = getPlatform(templateName);
+
+        if( Platform.UNKNOWN.equals(platform) && hasWindowsAbbreviation(templateName) ) {
+            return Platform.WINDOWS;
+        }
+        return platform;
+    }
+
+    /**
+     * @param text the text to check
+     * @return true if the text contains one of the common Windows abbreviations as a word of its own
+     */
+    static boolean hasWindowsAbbreviation(@Nullable String text) {
+        return ( WINDOWS.scan(text) != 0L );
+    }
+
+    /**
+     * Identifies well known software bundled in an image from its comma separated name and description.
+     * @param text the image name and description
+     * @return a comma separated list of software, empty if none is found
+     */
+    static @Nonnull String getSoftware(@Nonnull String text) {
+        if( !has(SOFTWARE.scan(text), SQL_SERVER) ) {
+            return "";
+        }
+        StringBuilder software = new StringBuilder();
+        boolean comma = false;
+        int start = 0;
+
+        while( start <= text.length() ) {
+            int end = text.indexOf(',', start);
+
+            if( end < 0 ) {
+                end = text.length();
+            }
+            long bits = SOFTWARE.scan(text, start, end);
+
+            if( has(bits, SQL_SERVER) ) {
+                if( comma ) {
+                    software.append(",");
+                }
+                if( has(bits, SQL_SERVER_2008) ) {
+                    software.append("SQL Server 2008");
+                }
+                else if( has(bits, SQL_SERVER_2005) ) {
+                    software.append("SQL Server 2005");
+                }
+                else {
+                    software.append("SQL Server 2008");
+                }
+                comma = true;
+            }
+            start = end + 1;
+        }
+        return software.toString();
+    }
+
+    static private @Nullable Architecture getExplicitArchitecture(@Nullable String text) {
+        long bits = ARCHITECTURES.scan(text);
+
+        if( has(bits, ARCH_X64) ) {
+            return Architecture.I64;
+        }
+        else if( has(bits, ARCH_X32) ) {
+            return Architecture.I32;
+        }
+        return null;
+    }
+
+    static private boolean has(long bits, int keyword) {
+        return ( bits & ( 1L << keyword ) ) != 0L;
+    }
+}
@@ -18,6 +18,8 @@
 
 package org.dasein.cloud.cloudstack.compute;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.*;
 
 import javax.annotation.Nonnull;
@@ -37,7 +39,9 @@ import org.dasein.cloud.cloudstack.CSException;
 import org.dasein.cloud.cloudstack.CSMethod;
 import org.dasein.cloud.cloudstack.CSServiceProvider;
 import org.dasein.cloud.cloudstack.CSTopology;
+import org.dasein.cloud.cloudstack.Iterables;
 import org.dasein.cloud.cloudstack.Param;
+import org.dasein.cloud.cloudstack.RequestScope;
 import org.dasein.cloud.compute.AbstractImageSupport;
 import org.dasein.cloud.compute.Architecture;
 import org.dasein.cloud.compute.ImageCapabilities;
@@ -77,6 +81,9 @@ public class Templates extends AbstractImageSupport<CSCloud> {
     static public final String REGISTER_TEMPLATE           = "registerTemplate";
     static public final String UPDATE_ISO_PERMISSIONS      = "updateIsoPermissions";
     static public final String UPDATE_TEMPLATE_PERMISSIONS = "updateTemplatePermissions";
+
+    // upper bound for the encoded accounts parameter of a single permission update
+    static private final int MAX_ACCOUNTS_LENGTH = 2000;
     
     public Templates(CSCloud provider) {
         super(provider);
@@ -86,38 +93,131 @@ public class Templates extends AbstractImageSupport<CSCloud> {
     public void addImageShare( @Nonnull String providerImageId, @Nonnull String accountNumber ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Image.addImageShare");
         try {
-            ProviderContext ctx = getProvider().getContext();
-
-            if( ctx == null ) {
-                throw new CloudException("No context was set for this request");
+            if( canShare(providerImageId) ) {
+                updateImageShares(providerImageId, Collections.singletonList(accountNumber), "add");
             }
-            MachineImage img = getImage(providerImageId);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            if( img == null ) {
+    /**
+     * Shares the image with all of the given accounts. Accounts that already have access are skipped and the rest
+     * are packed into as few permission updates as the request length allows.
+     * @param providerImageId the image to share
+     * @param accountNumbers the accounts to share the image with
+     * @throws CloudException an error occurred with the cloud provider while sharing the image
+     * @throws InternalException an error occurred within Dasein Cloud while sharing the image
+     */
+    public void addImageShares( @Nonnull String providerImageId, @Nonnull Collection<String> accountNumbers ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Image.addImageShares");
+        try {
+            if( accountNumbers.isEmpty() || !canShare(providerImageId) ) {
                 return;
             }
-            if( !ctx.getAccountNumber().equals(img.getProviderOwnerId())
-                    && !getProvider().getParentAccount().equalsIgnoreCase(img.getProviderOwnerId())) {
-                return;
+            Set<String> existing = new HashSet<String>();
+
+            for( String account : listShares(providerImageId) ) {
+                existing.add(account.toLowerCase());
+            }
+            List<String> accounts = new ArrayList<String>();
+
+            for( String account : new LinkedHashSet<String>(accountNumbers) ) {
+                if( !existing.contains(account.toLowerCase()) ) {
+                    accounts.add(account);
+                }
             }
-            Param[] params = new Param[]{new Param("id", providerImageId), new Param("accounts", accountNumber), new Param("op", "add")};
+            updateImageShares(providerImageId, accounts, "add");
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    private boolean canShare( @Nonnull String providerImageId ) throws CloudException, InternalException {
+        ProviderContext ctx = getProvider().getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context was set for this request");
+        }
+        MachineImage img = getImage(providerImageId);
+
+        if( img == null ) {
+            return false;
+        }
+        return ctx.getAccountNumber().equals(img.getProviderOwnerId())
+                || getProvider().getParentAccount().equalsIgnoreCase(img.getProviderOwnerId());
+    }
+
+    /**
+     * Splits the accounts into comma separated lists that keep each permission update request within
+     * {@link #MAX_ACCOUNTS_LENGTH} encoded characters.
+     */
+    static @Nonnull List<String> chunkAccounts( @Nonnull List<String> accounts ) throws InternalException {
+        List<String> chunks = new ArrayList<String>();
+        StringBuilder chunk = new StringBuilder();
+        int length = 0;
+
+        try {
+            for( String account : accounts ) {
+                int encoded = URLEncoder.encode(account, "UTF-8").length();
+
+                if( chunk.length() > 0 && length + 3 + encoded > MAX_ACCOUNTS_LENGTH ) {
+                    chunks.add(chunk.toString());
+                    chunk = new StringBuilder();
+                    length = 0;
+                }
+                if( chunk.length() > 0 ) {
+                    chunk.append(",");
+                    length += 3;
+                }
+                chunk.append(account);
+                length += encoded;
+            }
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+        if( chunk.length() > 0 ) {
+            chunks.add(chunk.toString());
+        }
+        return chunks;
+    }
+
+    /**
+     * Issues one permission update per chunk of accounts and then waits for all of the resulting jobs.
+     * Falls back to the ISO permission call if the image turns out not to be a template.
+     */
+    private void updateImageShares( @Nonnull String providerImageId, @Nonnull List<String> accounts, @Nonnull String op ) throws CloudException, InternalException {
+        if( accounts.isEmpty() ) {
+            return;
+        }
+        CSMethod method = new CSMethod(getProvider());
+        String command = UPDATE_TEMPLATE_PERMISSIONS;
+        String jobName = "Share Template";
+        List<Document> jobs = new ArrayList<Document>();
+
+        for( String chunk : chunkAccounts(accounts) ) {
+            Param[] params = new Param[]{new Param("id", providerImageId), new Param("accounts", chunk), new Param("op", op)};
 
-            CSMethod method = new CSMethod(getProvider());
-            Document doc;
             try {
-                doc = method.get(UPDATE_TEMPLATE_PERMISSIONS, params);
-                getProvider().waitForJob(doc, "Share Template");
+                jobs.add(method.get(command, params));
             }
             catch( CSException e ) {
-                if( e.getHttpCode() == 431 ) {
+                if( e.getHttpCode() == 431 && jobs.isEmpty() && command.equals(UPDATE_TEMPLATE_PERMISSIONS) ) {
                     //try update iso share
-                    doc = method.get(UPDATE_ISO_PERMISSIONS, params);
-                    getProvider().waitForJob(doc, "Share Iso");
+                    command = UPDATE_ISO_PERMISSIONS;
+                    jobName = "Share Iso";
+                    jobs.add(method.get(command, params));
+                }
+                else {
+                    throw e;
                 }
             }
         }
-        finally {
-            APITrace.end();
+        for( Document doc : jobs ) {
+            getProvider().waitForJob(doc, jobName);
         }
     }
 
@@ -229,58 +329,7 @@ public class Templates extends AbstractImageSupport<CSCloud> {
     }
     
     private Architecture guess(String desc) {
-        Architecture arch = Architecture.I64;
-        
-        if( desc.contains("x64") ) {
-            arch = Architecture.I64;
-        }
-        else if( desc.contains("x32") ) {
-            arch = Architecture.I32;
-        }
-        else if( desc.contains("64 bit") ) {
-            arch = Architecture.I64;
-        }
-        else if( desc.contains("32 bit") ) {
-            arch = Architecture.I32;
-        }
-        else if( desc.contains("i386") ) {
-            arch = Architecture.I32;
-        }
-        else if( desc.contains("64") ) {
-            arch = Architecture.I64;
-        }
-        else if( desc.contains("32") ) {
-            arch = Architecture.I32;
-        }
-        return arch;
-    }
-    
-    private void guessSoftware(@Nonnull MachineImage image) {
-        String[] components = ((image.getName() + " " + image.getDescription()).toLowerCase()).split(",");
-        StringBuilder software = new StringBuilder();
-        boolean comma = false;
-
-        if( components == null || components.length < 0 ) {
-            components = new String[] { (image.getName() + " " + image.getDescription()).toLowerCase() };
-        }
-        for( String str : components ) {
-            if( str.contains("sql server") ) {
-                if( comma ) {
-                    software.append(",");
-                }
-                if( str.contains("sql server 2008") ) {
-                    software.append("SQL Server 2008");
-                }
-                else if( str.contains("sql server 2005") ) {
-                    software.append("SQL Server 2005");
-                }
-                else {
-                    software.append("SQL Server 2008");
-                }
-                comma = true;
-            }
-        }
-        image.withSoftware(software.toString());
+        return TemplateClassifier.getArchitecture(desc);
     }
 
     @Override
@@ -646,6 +695,7 @@ public class Templates extends AbstractImageSupport<CSCloud> {
     @Override
     public @Nonnull Iterable<MachineImage> listImages(@Nullable ImageFilterOptions options) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Image.listImages");
+        RequestScope scope = RequestScope.open();
         try {
             final List<String> hypervisors = getProvider().getZoneHypervisors(getContext().getRegionId());
 
@@ -711,6 +761,7 @@ public class Templates extends AbstractImageSupport<CSCloud> {
             return templates;
         }
         finally {
+            scope.close();
             APITrace.end();
         }
     }
@@ -718,7 +769,9 @@ public class Templates extends AbstractImageSupport<CSCloud> {
     // TODO: refactor to use listImages, as the code is a copy-paste with minor changes.
     private @Nonnull List<MachineImage> listIsos(@Nullable ImageFilterOptions options) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Image.listIsos");
+        RequestScope scope = RequestScope.open();
         try {
+            final List<String> hypervisors = getProvider().getZoneHypervisors(getContext().getRegionId());
             final CSMethod method = new CSMethod(getProvider());
             final String accountNumber = (options == null ? null : options.getAccountNumber());
             final List<Param> params = new ArrayList<Param>();
@@ -761,8 +814,7 @@ public class Templates extends AbstractImageSupport<CSCloud> {
                 NodeList matches = doc.getElementsByTagName("iso");
 
                 for( int i=0; i<matches.getLength(); i++ ) {
-                    MachineImage image = toImage(matches.item(i), false, getProvider().getZoneHypervisors(getContext().getRegionId()));
-
+                    MachineImage image = toImage(matches.item(i), false, hypervisors);
 
                     if( image != null && (options == null || options.matches(image)) ) {
                         image.setTag("isISO", "true");
@@ -774,6 +826,7 @@ public class Templates extends AbstractImageSupport<CSCloud> {
             return templates;
         }
         finally {
+            scope.close();
             APITrace.end();
         }
     }
@@ -824,7 +877,7 @@ public class Templates extends AbstractImageSupport<CSCloud> {
             }
             String name = validateName(options.getName());
 
-            Platform platform = Platform.guess(name);
+            Platform platform = TemplateClassifier.getPlatform(name);
             Architecture architecture = guess(name);
             List<Param> params = new ArrayList<Param>();
 
@@ -924,8 +977,8 @@ public class Templates extends AbstractImageSupport<CSCloud> {
     public void removeAllImageShares(@Nonnull String providerImageId) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Image.removeAllImageShares");
         try {
-            for( String account : listShares(providerImageId) ) {
-                removeImageShare(providerImageId, account);
+            if( canShare(providerImageId) ) {
+                updateImageShares(providerImageId, Iterables.toList(listShares(providerImageId)), "remove");
             }
             removePublicShare(providerImageId);
         }
@@ -938,30 +991,42 @@ public class Templates extends AbstractImageSupport<CSCloud> {
     public void removeImageShare(@Nonnull String providerImageId, @Nonnull String accountNumber) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Image.removeImageShare");
         try {
-            MachineImage img = getImage(providerImageId);
-
-            if( img == null ) {
-                return;
+            if( canShare(providerImageId) ) {
+                updateImageShares(providerImageId, Collections.singletonList(accountNumber), "remove");
             }
-            if( !getContext().getAccountNumber().equals(img.getProviderOwnerId())
-                    && !getProvider().getParentAccount().equalsIgnoreCase(img.getProviderOwnerId())) {
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Revokes access to the image from all of the given accounts. Accounts the image is not shared with are
+     * skipped and the rest are packed into as few permission updates as the request length allows.
+     * @param providerImageId the image to unshare
+     * @param accountNumbers the accounts to remove access from
+     * @throws CloudException an error occurred with the cloud provider while unsharing the image
+     * @throws InternalException an error occurred within Dasein Cloud while unsharing the image
+     */
+    public void removeImageShares(@Nonnull String providerImageId, @Nonnull Collection<String> accountNumbers) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Image.removeImageShares");
+        try {
+            if( accountNumbers.isEmpty() || !canShare(providerImageId) ) {
                 return;
             }
-            Param[] params = new Param[] { new Param("id", providerImageId), new Param("accounts", accountNumber), new Param("op", "remove") };
+            Set<String> requested = new HashSet<String>();
 
-            CSMethod method = new CSMethod(getProvider());
-            Document doc;
-            try {
-                doc = method.get(UPDATE_TEMPLATE_PERMISSIONS, params);
-                getProvider().waitForJob(doc, "Share Template");
+            for( String account : accountNumbers ) {
+                requested.add(account.toLowerCase());
             }
-            catch (CSException e) {
-                if (e.getHttpCode()==431) {
-                    //try update iso share
-                    doc = method.get(UPDATE_ISO_PERMISSIONS, params);
-                    getProvider().waitForJob(doc, "Share Iso");
+            List<String> accounts = new ArrayList<String>();
+
+            for( String account : listShares(providerImageId) ) {
+                if( requested.contains(account.toLowerCase()) ) {
+                    accounts.add(account);
                 }
             }
+            updateImageShares(providerImageId, accounts, "remove");
         }
         finally {
             APITrace.end();
@@ -1164,7 +1229,6 @@ public class Templates extends AbstractImageSupport<CSCloud> {
         if( node == null ) {
             return null;
         }
-        Architecture bestArchitectureGuess = Architecture.I64;
         Map<String, String> properties = new HashMap<String,String>();
         NodeList attributes = node.getChildNodes();
         boolean isPublic = false;
@@ -1173,8 +1237,7 @@ public class Templates extends AbstractImageSupport<CSCloud> {
         MachineImageState state = MachineImageState.PENDING;
         String regionId = null;
         ImageClass imageClass = ImageClass.MACHINE;
-        String imageId = null, imgName = null, description = null;
-        Platform platform = null;
+        String imageId = null, imgName = null, description = null, osTypeName = null;
         Architecture architecture = null;
         long creationTimestamp = 0l;
         boolean crossZones = false;
@@ -1206,35 +1269,15 @@ public class Templates extends AbstractImageSupport<CSCloud> {
             }
             else if( name.equals("name") ) {
                 imgName = value;
-                if( value != null && value.contains("x64") ) {
-                    bestArchitectureGuess = Architecture.I64;
-                }
-                else if( value != null && value.contains("x32") ) {
-                    bestArchitectureGuess = Architecture.I32;
-                }
             }
             else if( name.equals("displaytext") ) {
                 description = value;
-                if( value != null && value.contains("x64") ) {
-                    bestArchitectureGuess = Architecture.I64;
-                }
-                else if( value != null && value.contains("x32") ) {
-                    bestArchitectureGuess = Architecture.I32;
-                }
             }
             else if( name.equals("ispublic") ) {
                 isPublic = (value != null && value.equalsIgnoreCase("true"));
             }
             else if( name.equals("ostypename") ) {
-                if( value != null && value.contains("64") ) {
-                    bestArchitectureGuess = Architecture.I64;
-                }
-                else if( value != null && value.contains("32") ) {
-                    bestArchitectureGuess = Architecture.I32;
-                }
-                if( value != null && platform == null ) {
-                    platform = Platform.guess(value);
-                }
+                osTypeName = value;
             }
             else if( name.equals("ostypeid") && value != null ) {
                 properties.put("cloud.com.os.typeId", value);
@@ -1264,23 +1307,15 @@ public class Templates extends AbstractImageSupport<CSCloud> {
                 }
             }
         }
-        if( platform == null || Platform.UNKNOWN.equals(platform) ) {
-            platform = Platform.guess(imgName);
-        }
-        if( platform == null || Platform.UNKNOWN.equals(platform) ) {
-            platform = Platform.guess(description);
-        }
-        if( platform == null ) {
-            platform = Platform.UNKNOWN;
-        }
-        
+        TemplateClassifier.Classification classification = TemplateClassifier.classify(imageId, osTypeName, imgName, description);
+
         if( architecture == null ) {
-            architecture = bestArchitectureGuess;
+            architecture = classification.getArchitecture();
         }
         MachineImage image = null;
         if( !onlyIfPublic || isPublic ) {
-            image = MachineImage.getImageInstance(providerOwnerId, regionId, imageId, imageClass, state, imgName, description, architecture, platform);
-            guessSoftware(image);
+            image = MachineImage.getImageInstance(providerOwnerId, regionId, imageId, imageClass, state, imgName, description, architecture, classification.getPlatform());
+            image.withSoftware(classification.getSoftware());
             image.setTags(properties);
             image.createdAt(creationTimestamp);
             if( isPublic ) {
@@ -1354,7 +1389,7 @@ public class Templates extends AbstractImageSupport<CSCloud> {
                 else if( attr.getNodeName().equals("description") ) {
                     String desc = attr.getFirstChild().getNodeValue();
                     
-                    pf = Platform.guess(desc);
+                    pf = TemplateClassifier.getPlatform(desc);
                     arch = guess(desc);
                 }
             }
@@ -33,6 +33,7 @@ import org.dasein.cloud.cloudstack.CSMethod;
 import org.dasein.cloud.cloudstack.CSTopology;
 import org.dasein.cloud.cloudstack.CSVersion;
 import org.dasein.cloud.cloudstack.Param;
+import org.dasein.cloud.cloudstack.RequestScope;
 import org.dasein.cloud.cloudstack.network.Network;
 import org.dasein.cloud.cloudstack.network.SecurityGroup;
 import org.dasein.cloud.compute.*;
@@ -462,6 +463,7 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
     @Override
     public @Nonnull VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "VM.launch");
+        RequestScope scope = RequestScope.open();
         try {
             String id = withLaunchOptions.getStandardProductId();
 
@@ -498,6 +500,7 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
             return vm;
         }
         finally {
+            scope.close();
             APITrace.end();
         }
     }
@@ -855,34 +858,6 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
         }
     }
 
-    private void setFirewalls(@Nonnull VirtualMachine vm) throws InternalException, CloudException {
-        APITrace.begin(getProvider(), "VM.setFirewalls");
-        try {
-            SecurityGroup support = getProvider().getNetworkServices().getFirewallSupport();
-
-            if( support == null ) {
-                return;
-            }
-            List<String> ids = new ArrayList<String>();
-
-            Iterable<String> firewalls;
-            try {
-                firewalls = support.listFirewallsForVM(vm.getProviderVirtualMachineId());
-            } catch (Throwable t) {
-                logger.error("Problem listing firewalls (listSecurityGroups) for '" + vm.getProviderVirtualMachineId() + "': " + t.getMessage());
-                return;
-            }
-
-            for( String id : firewalls ) {
-                ids.add(id);
-            }
-            vm.setProviderFirewallIds(ids.toArray(new String[ids.size()]));
-        }
-        finally {
-            APITrace.end();
-        }
-    }
-
     @Nullable
     @Override
     public VirtualMachineProduct getProduct(@Nonnull String productId) throws InternalException, CloudException {
@@ -911,97 +886,133 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
             Cache<VirtualMachineProduct> cache = Cache.getInstance(getProvider(), "ServerProducts", VirtualMachineProduct.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Hour>(4, TimePeriod.HOUR));
             Collection<VirtualMachineProduct> products = (Collection<VirtualMachineProduct>)cache.get(getContext());
             if(products == null){
-                Set<String> mapping = null;
+                products = loadProducts();
+                cache.put(getContext(), products);
+            }
+            if( options == null ) {
+                return products;
+            }
+            List<VirtualMachineProduct> matches = new ArrayList<VirtualMachineProduct>();
 
-                if( customServiceMappings == null ) {
-                    load();
+            for( VirtualMachineProduct product : products ) {
+                if( options.matches(product) ) {
+                    matches.add(product);
                 }
-                if( customServiceMappings != null ) {
-                    String cloudId = cloudMappings.getProperty(getContext().getCloud().getEndpoint());
+            }
+            return matches;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-                    if( cloudId != null ) {
-                        Map<String,Set<String>> map = customServiceMappings.get(cloudId);
+    /**
+     * Replaces the cached service offerings of the current region, for example with offerings restored from
+     * a discovery snapshot or freshly listed by {@link #loadProducts()}.
+     * @param products the service offerings of the current region
+     */
+    public void restoreProducts(@Nonnull Collection<VirtualMachineProduct> products) {
+        Cache<VirtualMachineProduct> cache = Cache.getInstance(getProvider(), "ServerProducts", VirtualMachineProduct.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Hour>(4, TimePeriod.HOUR));
 
-                        if( map != null ) {
-                            mapping = map.get(getContext().getRegionId());
-                        }
-                    }
-                }
-                products = new ArrayList<VirtualMachineProduct>();
+        cache.put(getContext(), products);
+    }
 
-                Document doc = new CSMethod(getProvider()).get(
-                        LIST_SERVICE_OFFERINGS,
-                        new Param("zoneId", getContext().getRegionId())
-                );
-                NodeList matches = doc.getElementsByTagName("serviceoffering");
+    /**
+     * Lists the service offerings of the current region without consulting the cache.
+     * @return the service offerings usable for launching virtual machines
+     * @throws InternalException an error occurred within Dasein Cloud while listing the offerings
+     * @throws CloudException an error occurred with the cloud provider while listing the offerings
+     */
+    public @Nonnull List<VirtualMachineProduct> loadProducts() throws InternalException, CloudException {
+        Set<String> mapping = null;
 
-                for( int i=0; i<matches.getLength(); i++ ) {
-                    String id = null, name = null;
-                    Node node = matches.item(i);
-                    NodeList attributes;
-                    int memory = 0;
-                    int cpu = 0;
-                    Boolean customized = null;
-                    attributes = node.getChildNodes();
-                    for( int j=0; j<attributes.getLength(); j++ ) {
-                        Node n = attributes.item(j);
-                        String value;
+        if( customServiceMappings == null ) {
+            load();
+        }
+        if( customServiceMappings != null ) {
+            String cloudId = cloudMappings.getProperty(getContext().getCloud().getEndpoint());
 
-                        if( n.getChildNodes().getLength() > 0 ) {
-                            value = n.getFirstChild().getNodeValue();
-                        }
-                        else {
-                            value = null;
-                        }
-                        if( n.getNodeName().equals("id") ) {
-                            id = value;
-                        }
-                        else if( n.getNodeName().equals("name") ) {
-                            name = value;
-                        }
-                        else if( n.getNodeName().equals("cpunumber") ) {
-                            cpu = Integer.parseInt(value);
-                        }
-                        else if( n.getNodeName().equals("memory") ) {
-                            memory = Integer.parseInt(value);
-                        }
-                        else if( n.getNodeName().equals("iscustomized") ) {
-                            customized = Boolean.valueOf(value);
-                        }
-                        if( id != null && name != null && cpu > 0 && memory > 0 && customized != null) {
-                            break;
-                        }
-                    }
-                    if( id != null  && name != null && cpu > 0 && memory > 0 && !customized) {
-                        if( mapping == null || mapping.contains(id) ) {
-                            VirtualMachineProduct product;
-
-                            product = new VirtualMachineProduct();
-                            product.setProviderProductId(id);
-                            product.setName(name + " (" + cpu + " CPU/" + memory + "MB RAM)");
-                            product.setDescription(name + " (" + cpu + " CPU/" + memory + "MB RAM)");
-                            product.setRamSize(new Storage<Megabyte>(memory, Storage.MEGABYTE));
-                            product.setCpuCount(cpu);
-                            product.setRootVolumeSize(new Storage<Gigabyte>(1, Storage.GIGABYTE));
-                            product.setArchitectures(Architecture.I32, Architecture.I64);
-                            if (options != null) {
-                                if (options.matches(product)) {
-                                    products.add(product);
-                                }
-                            }
-                            else {
-                                products.add(product);
-                            }
-                        }
-                    }
+            if( cloudId != null ) {
+                Map<String,Set<String>> map = customServiceMappings.get(cloudId);
+
+                if( map != null ) {
+                    mapping = map.get(getContext().getRegionId());
                 }
-                cache.put(getContext(), products);
             }
-            return products;
         }
-        finally {
-            APITrace.end();
+        List<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
+
+        Document doc = new CSMethod(getProvider()).get(
+                LIST_SERVICE_OFFERINGS,
+                new Param("zoneId", getContext().getRegionId())
+        );
+        NodeList matches = doc.getElementsByTagName("serviceoffering");
+
+        for( int i=0; i<matches.getLength(); i++ ) {
+            String id = null, name = null;
+            Node node = matches.item(i);
+            NodeList attributes;
+            int memory = 0;
+            int cpu = 0;
+            Boolean customized = null;
+            attributes = node.getChildNodes();
+            for( int j=0; j<attributes.getLength(); j++ ) {
+                Node n = attributes.item(j);
+                String value;
+
+                if( n.getChildNodes().getLength() > 0 ) {
+                    value = n.getFirstChild().getNodeValue();
+                }
+                else {
+                    value = null;
+                }
+                if( n.getNodeName().equals("id") ) {
+                    id = value;
+                }
+                else if( n.getNodeName().equals("name") ) {
+                    name = value;
+                }
+                else if( n.getNodeName().equals("cpunumber") ) {
+                    cpu = Integer.parseInt(value);
+                }
+                else if( n.getNodeName().equals("memory") ) {
+                    memory = Integer.parseInt(value);
+                }
+                else if( n.getNodeName().equals("iscustomized") ) {
+                    customized = Boolean.valueOf(value);
+                }
+                if( id != null && name != null && cpu > 0 && memory > 0 && customized != null) {
+                    break;
+                }
+            }
+            if( id != null  && name != null && cpu > 0 && memory > 0 && !customized) {
+                if( mapping == null || mapping.contains(id) ) {
+                    products.add(toProduct(id, name + " (" + cpu + " CPU/" + memory + "MB RAM)", cpu, memory));
+                }
+            }
         }
+        return products;
+    }
+
+    /**
+     * Builds a service offering from the values CloudStack reports for it.
+     * @param productId the service offering id
+     * @param name the display name of the offering
+     * @param cpu the number of CPUs
+     * @param memory the RAM size in megabytes
+     * @return the product
+     */
+    static public @Nonnull VirtualMachineProduct toProduct(@Nonnull String productId, @Nonnull String name, int cpu, int memory) {
+        VirtualMachineProduct product = new VirtualMachineProduct();
+
+        product.setProviderProductId(productId);
+        product.setName(name);
+        product.setDescription(name);
+        product.setRamSize(new Storage<Megabyte>(memory, Storage.MEGABYTE));
+        product.setCpuCount(cpu);
+        product.setRootVolumeSize(new Storage<Gigabyte>(1, Storage.GIGABYTE));
+        product.setArchitectures(Architecture.I32, Architecture.I64);
+        return product;
     }
 
     @Override
@@ -1063,54 +1074,78 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
     public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
         APITrace.begin(getProvider(), "VM.listVirtualMachines");
         try {
-            CSMethod method = new CSMethod(getProvider());
-            Document doc = method.get(
-                    LIST_VIRTUAL_MACHINES,
-                    new Param("zoneId", getContext().getRegionId())
-            );
-            List<VirtualMachine> servers = new ArrayList<VirtualMachine>();
+            return listVirtualMachines(null);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            int numPages = 1;
-            NodeList nodes = doc.getElementsByTagName("count");
-            Node n = nodes.item(0);
-            if (n != null) {
-                String value = n.getFirstChild().getNodeValue().trim();
-                int count = Integer.parseInt(value);
-                numPages = count/500;
-                int remainder = count % 500;
-                if (remainder > 0) {
-                    numPages++;
-                }
-            }
+    /**
+     * Lists the virtual machines of the current zone that have a NIC in the specified network, filtering by
+     * <code>networkid</code> in the cloud.
+     * @param vlanId the network whose virtual machines are listed
+     * @return the virtual machines in the network
+     * @throws InternalException an error occurred within Dasein Cloud while listing the virtual machines
+     * @throws CloudException an error occurred with the cloud provider while listing the virtual machines
+     */
+    public @Nonnull Iterable<VirtualMachine> listVirtualMachinesInVlan(@Nonnull String vlanId) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "VM.listVirtualMachinesInVlan");
+        try {
+            return listVirtualMachines(vlanId);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            for (int page = 1; page <= numPages; page++) {
-                if (page > 1) {
-                    String nextPage = String.valueOf(page);
-                    doc = method.get(
-                            LIST_VIRTUAL_MACHINES,
-                            new Param("zoneId", getContext().getRegionId()),
-                            new Param("pagesize", "500"),
-                            new Param("page", nextPage));
+    private @Nonnull List<VirtualMachine> listVirtualMachines(@Nullable String vlanId) throws InternalException, CloudException {
+        CSMethod method = new CSMethod(getProvider());
+        Param pageParam = new Param("page", "1");
+        List<Param> params = new ArrayList<Param>();
+
+        params.add(new Param("zoneId", getContext().getRegionId()));
+        if( vlanId != null ) {
+            params.add(new Param("networkid", vlanId));
+        }
+        params.add(new Param("pagesize", "500"));
+        params.add(pageParam);
+
+        List<VirtualMachine> servers = new ArrayList<VirtualMachine>();
+        int numPages = 1;
+
+        for( int page = 1; page <= numPages; page++ ) {
+            pageParam.setValue(String.valueOf(page));
+            Document doc = method.get(LIST_VIRTUAL_MACHINES, params);
+
+            if( page == 1 ) {
+                NodeList nodes = doc.getElementsByTagName("count");
+                Node n = nodes.item(0);
+
+                if( n != null ) {
+                    int count = Integer.parseInt(n.getFirstChild().getNodeValue().trim());
+
+                    numPages = count / 500;
+                    if( count % 500 > 0 ) {
+                        numPages++;
+                    }
                 }
-                NodeList matches = doc.getElementsByTagName("virtualmachine");
+            }
+            NodeList matches = doc.getElementsByTagName("virtualmachine");
 
-                for( int i=0; i<matches.getLength(); i++ ) {
-                    Node node = matches.item(i);
+            for( int i=0; i<matches.getLength(); i++ ) {
+                Node node = matches.item(i);
 
-                    if( node != null ) {
-                        VirtualMachine vm = toVirtualMachine(node);
+                if( node != null ) {
+                    VirtualMachine vm = toVirtualMachine(node);
 
-                        if( vm != null ) {
-                            servers.add(vm);
-                        }
+                    if( vm != null ) {
+                        servers.add(vm);
                     }
                 }
             }
-            return servers;
-        }
-        finally {
-            APITrace.end();
         }
+        return servers;
     }
 
     private String resetPassword(@Nonnull String serverId) throws CloudException, InternalException {
@@ -1281,6 +1316,94 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
         return new ResourceStatus(serverId, state);
     }
 
+    /**
+     * @return the id of the security group described by a <code>securitygroup</code> element of a virtual machine
+     */
+    private @Nullable String getFirewallId(@Nonnull Node securityGroup) {
+        NodeList parts = securityGroup.getChildNodes();
+
+        for( int j=0; j<parts.getLength(); j++ ) {
+            Node part = parts.item(j);
+
+            if( "id".equalsIgnoreCase(part.getNodeName()) && part.hasChildNodes() ) {
+                return part.getFirstChild().getNodeValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the security groups of every virtual machine in the current zone from one paged
+     * <code>listVirtualMachines</code> listing.
+     * @return the security group ids of each virtual machine by virtual machine id, empty for machines without groups
+     * @throws InternalException an error occurred within Dasein Cloud while listing the virtual machines
+     * @throws CloudException an error occurred with the cloud provider while listing the virtual machines
+     */
+    public @Nonnull Map<String,List<String>> listFirewallMembership() throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "VM.listFirewallMembership");
+        try {
+            Map<String,List<String>> membership = new HashMap<String,List<String>>();
+            CSMethod method = new CSMethod(getProvider());
+            Param pageParam = new Param("page", "1");
+            List<Param> params = new ArrayList<Param>();
+
+            params.add(new Param("zoneId", getContext().getRegionId()));
+            params.add(new Param("pagesize", "500"));
+            params.add(pageParam);
+
+            int numPages = 1;
+
+            for( int page = 1; page <= numPages; page++ ) {
+                pageParam.setValue(String.valueOf(page));
+                Document doc = method.get(LIST_VIRTUAL_MACHINES, params);
+
+                if( page == 1 ) {
+                    NodeList nodes = doc.getElementsByTagName("count");
+                    Node n = nodes.item(0);
+
+                    if( n != null ) {
+                        int count = Integer.parseInt(n.getFirstChild().getNodeValue().trim());
+
+                        numPages = count / 500;
+                        if( count % 500 > 0 ) {
+                            numPages++;
+                        }
+                    }
+                }
+                NodeList matches = doc.getElementsByTagName("virtualmachine");
+
+                for( int i=0; i<matches.getLength(); i++ ) {
+                    NodeList attributes = matches.item(i).getChildNodes();
+                    List<String> firewallIds = new ArrayList<String>();
+                    String serverId = null;
+
+                    for( int j=0; j<attributes.getLength(); j++ ) {
+                        Node attribute = attributes.item(j);
+                        String name = attribute.getNodeName().toLowerCase();
+
+                        if( (name.equals("virtualmachineid") || name.equals("id")) && attribute.hasChildNodes() ) {
+                            serverId = attribute.getFirstChild().getNodeValue();
+                        }
+                        else if( name.equals("securitygroup") ) {
+                            String firewallId = getFirewallId(attribute);
+
+                            if( firewallId != null ) {
+                                firewallIds.add(firewallId);
+                            }
+                        }
+                    }
+                    if( serverId != null ) {
+                        membership.put(serverId, firewallIds);
+                    }
+                }
+            }
+            return membership;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
     private @Nullable VirtualMachine toVirtualMachine(@Nullable Node node) throws CloudException, InternalException {
         if( node == null ) {
             return null;
@@ -1288,6 +1411,7 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
         HashMap<String,String> properties = new HashMap<String,String>();
         VirtualMachine server = new VirtualMachine();
         NodeList attributes = node.getChildNodes();
+        List<String> firewallIds = new ArrayList<String>();
         String productId = null;
 
         server.setProviderOwnerId(getContext().getAccountNumber());
@@ -1331,16 +1455,10 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
                 server.setRootPassword(value);
             }
             else if( name.equals("securitygroup") ) { // v2.2+
-                if( attribute.hasChildNodes() ) {
-                    NodeList parts = attribute.getChildNodes();
-                    String sgId = null, sgName = null, sgDescription = null;
-                    for( int j=0; j<parts.getLength(); j++ ) {
-                        Node part = parts.item(j);
-                        if( "id".equalsIgnoreCase(part.getNodeName()) ) {
-                            server.setProviderFirewallIds(new String[] { part.getFirstChild().getNodeValue() });
-                            break;
-                        }
-                    }
+                String firewallId = getFirewallId(attribute);
+
+                if( firewallId != null ) {
+                    firewallIds.add(firewallId);
                 }
             }
             else if( name.equals("nic") ) { // v2.2+
@@ -1472,11 +1590,7 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
                 server.setProviderMachineImageId(value);
             }
             else if( name.equals("templatename") ) {
-                Platform platform = Platform.guess(value);
-                if (platform.equals(Platform.UNKNOWN)){
-                    platform = guessForWindows(value);
-                }
-                server.setPlatform(platform);
+                server.setPlatform(TemplateClassifier.getPlatformForTemplateName(value));
             }
             else if( name.equals("serviceofferingid") ) {
                 productId = value;
@@ -1488,6 +1602,9 @@ public class VirtualMachines extends AbstractVMSupport<CSCloud> {
                 properties.put(name, value);
             }
         }
+        if( !firewallIds.isEmpty() ) {
+            server.setProviderFirewallIds(firewallIds.toArray(new String[firewallIds.size()]));
+        }
         if( server.getName() == null ) {
             server.setName(server.getProviderVirtualMachineId());
         }
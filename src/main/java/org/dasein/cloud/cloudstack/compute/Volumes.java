@@ -26,6 +26,8 @@ import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
 import org.dasein.util.CalendarWrapper;
+import org.dasein.util.uom.time.Minute;
+import org.dasein.util.uom.time.TimePeriod;
 import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Storage;
 import org.w3c.dom.Document;
@@ -38,6 +40,10 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public class Volumes extends AbstractVolumeSupport<CSCloud> {
     static private final Logger logger = Logger.getLogger(Volumes.class);
@@ -71,48 +77,266 @@ public class Volumes extends AbstractVolumeSupport<CSCloud> {
             if( logger.isInfoEnabled() ) {
                 logger.info("attaching " + volumeId + " to " + serverId + " as " + deviceId);
             }
-            VirtualMachine vm = getProvider().getComputeServices().getVirtualMachineSupport().getVirtualMachine(serverId);
+            waitForAttachableState(serverId);
+            attachNow(volumeId, serverId, deviceId);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            if( vm == null ) {
-                throw new CloudException("No such virtual machine: " + serverId);
-            }
-            long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
+    /**
+     * Waits up to 10 minutes for the virtual machine to be running or stopped so volumes can be attached to it.
+     */
+    private void waitForAttachableState(final @Nonnull String serverId) throws InternalException, CloudException {
+        final VirtualMachineSupport support = getProvider().getComputeServices().getVirtualMachineSupport();
+        final VirtualMachine[] current = new VirtualMachine[] { support.getVirtualMachine(serverId) };
+        final boolean[] refresh = new boolean[1];
 
-            while( timeout > System.currentTimeMillis() ) {
+        if( current[0] == null ) {
+            throw new CloudException("No such virtual machine: " + serverId);
+        }
+        JobWatcher.awaitState(new JobWatcher.StateProbe<VirtualMachine>() {
+            @Override
+            public VirtualMachine check() throws CloudException, InternalException {
+                VirtualMachine vm = current[0];
+
+                if( refresh[0] ) {
+                    try { vm = support.getVirtualMachine(serverId); }
+                    catch( Throwable ignore ) { }
+                    if( vm == null ) {
+                        throw new CloudException("Virtual machine " + serverId + " disappeared waiting for it to enter an attachable state");
+                    }
+                    current[0] = vm;
+                }
+                refresh[0] = true;
                 if( VmState.RUNNING.equals(vm.getCurrentState()) || VmState.STOPPED.equals(vm.getCurrentState()) ) {
-                    break;
+                    return vm;
                 }
-                try { Thread.sleep(15000L); }
-                catch( InterruptedException ignore ) { }
-                try { vm = getProvider().getComputeServices().getVirtualMachineSupport().getVirtualMachine(serverId); }
-                catch( Throwable ignore ) { }
-                if( vm == null ) {
-                    throw new CloudException("Virtual machine " + serverId + " disappeared waiting for it to enter an attachable state");
+                return null;
+            }
+        }, 15000L, CalendarWrapper.MINUTE * 10L);
+    }
+
+    private void attachNow(@Nonnull String volumeId, @Nonnull String serverId, @Nullable String deviceId) throws InternalException, CloudException {
+        List<Param> params = new ArrayList<Param>();
+        params.add(new Param("id", volumeId));
+        params.add(new Param("virtualMachineId", serverId));
+
+        if( deviceId != null ) {
+            deviceId = toDeviceNumber(deviceId);
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Device mapping is: " + deviceId);
+            }
+            params.add(new Param("deviceId", deviceId));
+        }
+        Document doc = new CSMethod(getProvider()).get(ATTACH_VOLUME, params);
+
+        if( doc == null ) {
+            throw new CloudException("No such volume or server");
+        }
+        getProvider().waitForJob(doc, "Attach Volume");
+    }
+
+    /**
+     * Outcome of one create-and-attach request made through {@link #createAndAttach(List)}.
+     */
+    static public class AttachResult {
+        public String    serverId;
+        public String    deviceId;
+        public String    volumeId;
+        public Exception error;
+
+        public String toString() {return "Volume " + volumeId + " on " + serverId + " as " + deviceId + (error == null ? "" : ": " + error.getMessage());}
+    }
+
+    /**
+     * Creates a volume and attaches it to a virtual machine. The volume is created while the virtual machine is
+     * watched for an attachable state, and it is attached as soon as both are ready. If the virtual machine never
+     * becomes attachable, the new volume is removed again; should that fail too, the error names the volume.
+     * @param options the volume to create
+     * @param serverId the virtual machine to attach the volume to
+     * @param deviceId the device to attach the volume as, if any
+     * @return the id of the new volume
+     * @throws CloudException an error occurred with the cloud provider while creating or attaching the volume
+     * @throws InternalException an error occurred within Dasein Cloud while creating or attaching the volume
+     */
+    public @Nonnull String createAndAttach(@Nonnull VolumeCreateOptions options, @Nonnull final String serverId, @Nullable String deviceId) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "Volume.createAndAttach");
+        try {
+            Future<Void> vmReady = getProvider().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    waitForAttachableState(serverId);
+                    return null;
                 }
+            });
+            String volumeId;
+
+            try {
+                volumeId = createVolume(options);
+            }
+            catch( CloudException | InternalException | RuntimeException e ) {
+                vmReady.cancel(true);
+                throw e;
             }
-            List<Param> params = new ArrayList<Param>();
-            params.add(new Param("id", volumeId));
-            params.add(new Param("virtualMachineId", serverId));
+            try {
+                getProvider().await(vmReady);
+            }
+            catch( CloudException | InternalException | RuntimeException e ) {
+                try {
+                    remove(volumeId);
+                }
+                catch( Throwable t ) {
+                    logger.warn("Unable to remove volume " + volumeId + " after " + serverId + " failed to become attachable: " + t.getMessage());
+                    throw new CloudException("Volume " + volumeId + " was created but " + serverId + " never became attachable: " + e.getMessage(), e);
+                }
+                throw e;
+            }
+            attachNow(volumeId, serverId, deviceId);
+            return volumeId;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            if( deviceId != null ) {
-                deviceId = toDeviceNumber(deviceId);
-                if( logger.isDebugEnabled() ) {
-                    logger.debug("Device mapping is: " + deviceId);
+    /**
+     * Creates and attaches many volumes. Every volume must name the virtual machine it belongs to through
+     * {@link VolumeCreateOptions#getVirtualMachineId()}. The volumes are created concurrently, at most
+     * {@link #MAX_CONCURRENT_CREATES} at a time unless the custom property <code>maxConcurrentVolumeCreates</code>
+     * says otherwise; each virtual machine is watched once and gets its volumes attached one after another, in the
+     * order requested, while different virtual machines are watched and attached concurrently under the same limit.
+     * @param options the volumes to create
+     * @return the result of each request, in the order of the options
+     * @throws CloudException an error occurred with the cloud provider while waiting for the results
+     * @throws InternalException an error occurred within Dasein Cloud while waiting for the results
+     */
+    public @Nonnull List<AttachResult> createAndAttach(@Nonnull List<VolumeCreateOptions> options) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "Volume.createAndAttachMany");
+        try {
+            final List<AttachResult> results = new ArrayList<>();
+            Map<String, List<Integer>> byServer = new LinkedHashMap<>();
+            final List<Future<String>> creates = new ArrayList<>();
+            final Queue<FutureTask<String>> queue = new ConcurrentLinkedQueue<>();
+
+            for( int i = 0; i < options.size(); i++ ) {
+                final VolumeCreateOptions opts = options.get(i);
+                AttachResult result = new AttachResult();
+
+                result.serverId = opts.getVirtualMachineId();
+                result.deviceId = opts.getDeviceId();
+                results.add(result);
+                if( result.serverId == null ) {
+                    result.error = new InternalException("No virtual machine was specified for volume " + opts.getName());
+                    creates.add(null);
+                    continue;
                 }
-                params.add(new Param("deviceId", deviceId));
+                FutureTask<String> create = new FutureTask<>(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return createVolume(opts);
+                    }
+                });
+
+                creates.add(create);
+                queue.add(create);
+                List<Integer> indexes = byServer.get(result.serverId);
+
+                if( indexes == null ) {
+                    indexes = new ArrayList<>();
+                    byServer.put(result.serverId, indexes);
+                }
+                indexes.add(i);
             }
-            Document doc = new CSMethod(getProvider()).get(ATTACH_VOLUME, params);
+            runBounded(queue);
+            List<FutureTask<Void>> attachments = new ArrayList<>();
+
+            for( final Map.Entry<String, List<Integer>> entry : byServer.entrySet() ) {
+                attachments.add(new FutureTask<>(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Exception vmError = null;
+
+                        try {
+                            waitForAttachableState(entry.getKey());
+                        }
+                        catch( Exception e ) {
+                            vmError = e;
+                        }
+                        for( Integer index : entry.getValue() ) {
+                            AttachResult result = results.get(index);
 
-            if( doc == null ) {
-                throw new CloudException("No such volume or server");
+                            try {
+                                result.volumeId = getProvider().await(creates.get(index));
+                                if( vmError != null ) {
+                                    result.error = vmError;
+                                }
+                                else {
+                                    attachNow(result.volumeId, result.serverId, result.deviceId);
+                                }
+                            }
+                            catch( Exception e ) {
+                                result.error = e;
+                            }
+                        }
+                        return null;
+                    }
+                }));
             }
-            getProvider().waitForJob(doc, "Attach Volume");
+            runBounded(new ConcurrentLinkedQueue<>(attachments));
+            for( Future<Void> attachment : attachments ) {
+                getProvider().await(attachment);
+            }
+            return results;
         }
         finally {
             APITrace.end();
         }
     }
 
+    /**
+     * Runs the queued tasks on at most {@link #getMaxConcurrentCreates()} threads of the shared executor.
+     */
+    private <T> void runBounded(final @Nonnull Queue<FutureTask<T>> queue) {
+        for( int i = Math.min(getMaxConcurrentCreates(), queue.size()); i > 0; i-- ) {
+            getProvider().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    FutureTask<T> task;
+
+                    while( (task = queue.poll()) != null ) {
+                        task.run();
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    static private final int MAX_CONCURRENT_CREATES = 8;
+
+    private int getMaxConcurrentCreates() {
+        ProviderContext ctx = getContext();
+        Properties p = ( ctx == null ? null : ctx.getCustomProperties() );
+        String value = ( p == null ? null : p.getProperty("maxConcurrentVolumeCreates") );
+
+        if( value != null && !value.trim().equals("") ) {
+            try {
+                int max = Integer.parseInt(value.trim());
+
+                if( max > 0 ) {
+                    return max;
+                }
+            }
+            catch( NumberFormatException ignore ) {
+                // fall through to the default
+            }
+            logger.warn("Invalid value for maxConcurrentVolumeCreates: " + value);
+        }
+        return MAX_CONCURRENT_CREATES;
+    }
+
     @Override
     public @Nonnull String createVolume(@Nonnull VolumeCreateOptions options) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Volume.createVolume");
@@ -122,16 +346,8 @@ public class Volumes extends AbstractVolumeSupport<CSCloud> {
             }
             String snapshotId = options.getSnapshotId();
             String productId = options.getVolumeProductId();
-            VolumeProduct product = null;
-
-            if( productId != null ) {
-                for( VolumeProduct prd : listVolumeProducts() ) {
-                    if( productId.equals(prd.getProviderProductId()) ) {
-                        product = prd;
-                        break;
-                    }
-                }
-            }
+            DiskOfferingIndex offerings = getDiskOfferingIndex();
+            VolumeProduct product = ( productId == null ? null : offerings.getProduct(productId) );
             Storage<Gigabyte> size;
 
             if( snapshotId == null ) {
@@ -140,53 +356,14 @@ public class Volumes extends AbstractVolumeSupport<CSCloud> {
                     if( size.intValue() < getCapabilities().getMinimumVolumeSize().intValue() ) {
                         size = getCapabilities().getMinimumVolumeSize();
                     }
-                    Iterable<VolumeProduct> products = listVolumeProducts();
-                    VolumeProduct best = null;
-                    VolumeProduct custom = null;
-
-                    for( VolumeProduct p : products ) {
-                        Storage<Gigabyte> s = p.getMinVolumeSize();
-
-                        if( s  == null || s.intValue() == 0 ) {
-                            if (custom == null) {
-                                custom = p;
-                            }
-                            continue;
-                        }
-                        long currentSize = s.getQuantity().longValue();
-
-                        s = (best == null ? null : best.getMinVolumeSize());
-
-                        long bestSize = (s == null ? 0L : s.getQuantity().longValue());
-
-                        if( size.longValue() > 0L && size.longValue() == currentSize ) {
-                            product = p;
-                            break;
-                        }
-                        if( best == null ) {
-                            best = p;
-                        }
-                        else if( bestSize > 0L || currentSize > 0L ) {
-                            if( size.longValue() > 0L ) {
-                                if( bestSize < size.longValue() && bestSize >0L && (currentSize > size.longValue() || currentSize > bestSize) ) {
-                                    best = p;
-                                }
-                                else if( bestSize > size.longValue() && currentSize > size.longValue() && currentSize < bestSize ) {
-                                    best = p;
-                                }
-                            }
-                            else if( currentSize > 0L && currentSize < bestSize ) {
-                                best = p;
-                            }
-                        }
+                    if( size.longValue() > 0L ) {
+                        product = offerings.getExact(size.longValue());
                     }
                     if( product == null ) {
-                        if (custom != null) {
-                            product = custom;
-                        }
-                        else {
-                            product = best;
-                        }
+                        product = offerings.getCustom();
+                    }
+                    if( product == null ) {
+                        product = offerings.getNearest(size.longValue());
                     }
                 }
                 else {
@@ -393,7 +570,7 @@ public class Volumes extends AbstractVolumeSupport<CSCloud> {
     }
 
     private @Nullable Volume getRootVolume(@Nonnull String serverId) throws InternalException, CloudException {
-        final Document doc = new CSMethod(getProvider()).get(LIST_VOLUMES, new Param("virtualMachineId", serverId));
+        final Document doc = new CSMethod(getProvider()).get(LIST_VOLUMES, new Param("virtualMachineId", serverId), new Param("type", "ROOT"), new Param("zoneId", getContext().getRegionId()));
         NodeList matches = doc.getElementsByTagName("volume");
         
         for( int i=0; i<matches.getLength(); i++ ) {
@@ -448,27 +625,63 @@ public class Volumes extends AbstractVolumeSupport<CSCloud> {
         }
     }
 
-    @Override
-    public @Nonnull Iterable<VolumeProduct> listVolumeProducts() throws InternalException, CloudException {
-        APITrace.begin(getProvider(), "Volume.listVolumeProducts");
-        try {
-            Cache<VolumeProduct> cache = Cache.getInstance(getProvider(), "volumeProducts", VolumeProduct.class, CacheLevel.REGION_ACCOUNT);
-            Iterable<VolumeProduct> products = cache.get(getContext());
+    /**
+     * Provides the disk offerings of the current region. The index is cached for an hour and reloaded in the
+     * background once it is 45 minutes old, so volume creation does not wait for offering discovery.
+     */
+    private @Nonnull DiskOfferingIndex getDiskOfferingIndex() throws InternalException, CloudException {
+        final ProviderContext ctx = getContext();
+        final Cache<DiskOfferingIndex> cache = Cache.getInstance(getProvider(), "diskOfferingIndex", DiskOfferingIndex.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Minute>(60, TimePeriod.MINUTE));
+        Iterable<DiskOfferingIndex> cached = cache.get(ctx);
+        DiskOfferingIndex index = null;
 
-            if( products == null ) {
-                ArrayList<VolumeProduct> list = new ArrayList<VolumeProduct>();
+        if( cached != null ) {
+            Iterator<DiskOfferingIndex> it = cached.iterator();
 
-                for( DiskOffering offering : getDiskOfferings() ) {
-                    VolumeProduct p = toProduct(offering);
+            index = ( it.hasNext() ? it.next() : null );
+        }
+        if( index == null ) {
+            index = loadDiskOfferingIndex();
+            cache.put(ctx, Collections.singletonList(index));
+        }
+        else if( index.getAge() > CalendarWrapper.MINUTE * 45L && index.startRefresh() ) {
+            final DiskOfferingIndex stale = index;
 
-                    if( p != null && (!getProvider().getServiceProvider().equals(CSServiceProvider.DEMOCLOUD) || "local".equals(offering.type)) ) {
-                        list.add(p);
+            getProvider().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        cache.put(ctx, Collections.singletonList(loadDiskOfferingIndex()));
                     }
+                    catch( Exception e ) {
+                        logger.warn("Unable to refresh disk offerings: " + e.getMessage());
+                        stale.refreshFailed();
+                    }
+                    return null;
                 }
-                products = Collections.unmodifiableList(list);
-                cache.put(getContext(), products);
+            });
+        }
+        return index;
+    }
+
+    private @Nonnull DiskOfferingIndex loadDiskOfferingIndex() throws InternalException, CloudException {
+        List<VolumeProduct> list = new ArrayList<VolumeProduct>();
+
+        for( DiskOffering offering : getDiskOfferings() ) {
+            VolumeProduct p = toProduct(offering);
+
+            if( p != null && (!getProvider().getServiceProvider().equals(CSServiceProvider.DEMOCLOUD) || "local".equals(offering.type)) ) {
+                list.add(p);
             }
-            return products;
+        }
+        return new DiskOfferingIndex(list);
+    }
+
+    @Override
+    public @Nonnull Iterable<VolumeProduct> listVolumeProducts() throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "Volume.listVolumeProducts");
+        try {
+            return getDiskOfferingIndex().getProducts();
         }
         finally {
             APITrace.end();
@@ -526,16 +739,80 @@ public class Volumes extends AbstractVolumeSupport<CSCloud> {
     public @Nonnull Iterable<Volume> listVolumes() throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Volume.listVolumes");
         try {
-            return listVolumes(false);
+            return listVolumes(null, null);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Lists the volumes matching the options, letting the cloud filter by the virtual machine the volumes are
+     * attached to. The remaining criteria are evaluated here.
+     */
+    @Override
+    public @Nonnull Iterable<Volume> listVolumes(@Nullable VolumeFilterOptions options) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "Volume.listVolumes");
+        try {
+            return filter(listVolumes(options == null ? null : options.getAttachedTo(), null), options);
         }
         finally {
             APITrace.end();
         }
     }
-     
-    private @Nonnull Collection<Volume> listVolumes(boolean rootOnly) throws InternalException, CloudException {
+
+    /**
+     * Lists either the root volumes or the data volumes matching the options, letting the cloud filter by volume
+     * type and by the virtual machine the volumes are attached to.
+     * @param options the criteria to match or null for all volumes of the type
+     * @param rootVolumes true for root volumes, false for data volumes
+     * @return the matching volumes
+     * @throws InternalException an error occurred within Dasein Cloud listing the volumes
+     * @throws CloudException an error occurred with the cloud provider listing the volumes
+     */
+    public @Nonnull Iterable<Volume> listVolumes(@Nullable VolumeFilterOptions options, boolean rootVolumes) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "Volume.listVolumes");
+        try {
+            return filter(listVolumes(options == null ? null : options.getAttachedTo(), rootVolumes ? "ROOT" : "DATADISK"), options);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    private @Nonnull Collection<Volume> filter(@Nonnull Collection<Volume> volumes, @Nullable VolumeFilterOptions options) {
+        if( options == null || !options.hasCriteria() ) {
+            return volumes;
+        }
+        List<Volume> matches = new ArrayList<>();
+
+        for( Volume volume : volumes ) {
+            if( options.matches(volume) ) {
+                matches.add(volume);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @param vmId the virtual machine the volumes are attached to or null for all volumes
+     * @param type <code>ROOT</code>, <code>DATADISK</code> or null for both
+     */
+    private @Nonnull Collection<Volume> listVolumes(@Nullable String vmId, @Nullable String type) throws InternalException, CloudException {
         CSMethod method = new CSMethod(getProvider());
-        Document doc = method.get(LIST_VOLUMES, new Param("zoneId", getContext().getRegionId()));
+        List<Param> params = new ArrayList<>();
+        Param pageParam = new Param("page", "1");
+        boolean rootOnly = "ROOT".equals(type), dataOnly = "DATADISK".equals(type);
+
+        params.add(new Param("zoneId", getContext().getRegionId()));
+        if( vmId != null ) {
+            params.add(new Param("virtualMachineId", vmId));
+        }
+        if( type != null ) {
+            // let the cloud drop the other disks rather than mapping and discarding them here
+            params.add(new Param("type", type));
+        }
+        Document doc = method.get(LIST_VOLUMES, params);
         ArrayList<Volume> volumes = new ArrayList<>();
         int numPages = 1;
         NodeList nodes = doc.getElementsByTagName("count");
@@ -549,11 +826,13 @@ public class Volumes extends AbstractVolumeSupport<CSCloud> {
                 numPages++;
             }
         }
+        params.add(new Param("pagesize", "500"));
+        params.add(pageParam);
 
         for (int page = 1; page <= numPages; page++) {
             if (page > 1) {
-                String nextPage = String.valueOf(page);
-                doc = method.get(LIST_VOLUMES, new Param("zoneId", getContext().getRegionId()), new Param("pagesize", "500"), new Param("page", nextPage));
+                pageParam.setValue(String.valueOf(page));
+                doc = method.get(LIST_VOLUMES, params);
             }
             NodeList matches = doc.getElementsByTagName("volume");
 
@@ -563,7 +842,7 @@ public class Volumes extends AbstractVolumeSupport<CSCloud> {
                 if( v != null ) {
                     Volume volume = toVolume(v, rootOnly);
 
-                    if( volume != null ) {
+                    if( volume != null && !(dataOnly && volume.isRootVolume()) ) {
                         volumes.add(volume);
                     }
                 }
@@ -0,0 +1,347 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.cloudstack.CSCloud;
+import org.dasein.util.CalendarWrapper;
+
+/**
+ * Optional warm pool of public IP addresses that are associated ahead of time so that
+ * {@link IpAddress#request(org.dasein.cloud.network.IPVersion)} and
+ * {@link IpAddress#requestForVLAN(org.dasein.cloud.network.IPVersion, String)} can hand one out without waiting
+ * for an <code>associateIpAddress</code> job. There is one pool per endpoint, account, zone and network. The pool
+ * is enabled by setting the custom property <code>ipAddressPoolSize</code> to the number of addresses to keep
+ * ready; <code>ipAddressPoolIdleMinutes</code> (default 10) controls how long an unused pool keeps its addresses
+ * before releasing them. Pooled addresses are allocated to the account and show up in its IP pool listings.
+ * Each address is checked with the cloud before it is handed out, and {@link IpAddress#releasePooledAddresses()}
+ * releases all pooled addresses of a zone at once.
+ *
+ * @version 2015.10 initial version
+ * @since 2015.10
+ */
+final class AddressPool {
+    static private final Logger logger = CSCloud.getLogger(AddressPool.class, "std");
+
+    static private final ConcurrentMap<String, AddressPool> pools = new ConcurrentHashMap<String, AddressPool>();
+
+    static private volatile ScheduledExecutorService scheduler;
+
+    static private @Nonnull ScheduledExecutorService getScheduler() {
+        if( scheduler == null ) {
+            synchronized( AddressPool.class ) {
+                if( scheduler == null ) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(@Nonnull Runnable r) {
+                            Thread t = new Thread(r, "dasein-cloudstack-address-pool");
+
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    static private @Nonnull String getZoneKey(@Nonnull ProviderContext ctx) {
+        return ctx.getCloud().getEndpoint() + "|" + ctx.getAccountNumber() + "|" + ctx.getRegionId() + "|";
+    }
+
+    /**
+     * @param provider the provider requesting an address
+     * @param vlanId the network to associate addresses with, if any
+     * @return the warm pool for the provider's zone and the network or null if warm pools are not enabled
+     */
+    static @Nullable AddressPool getInstance(@Nonnull CSCloud provider, @Nullable String vlanId) {
+        ProviderContext ctx = provider.getContext();
+        Properties p = ( ctx == null ? null : ctx.getCustomProperties() );
+        int size = getInt(p, "ipAddressPoolSize", 0);
+
+        if( size < 1 ) {
+            return null;
+        }
+        String key = getZoneKey(ctx) + vlanId;
+        AddressPool pool = pools.get(key);
+
+        if( pool == null ) {
+            pools.putIfAbsent(key, new AddressPool(vlanId, size));
+            pool = pools.get(key);
+        }
+        pool.size = size;
+        pool.idleTimeout = CalendarWrapper.MINUTE * getInt(p, "ipAddressPoolIdleMinutes", 10);
+        return pool;
+    }
+
+    /**
+     * Removes the pools of the provider's zone, for all networks, and releases their addresses. Associations
+     * still in progress release their address as soon as they complete.
+     * @param support the IP address support of the provider
+     * @return the number of addresses released
+     */
+    static int drain(@Nonnull CSCloud provider, @Nonnull IpAddress support) {
+        ProviderContext ctx = provider.getContext();
+
+        if( ctx == null ) {
+            return 0;
+        }
+        String prefix = getZoneKey(ctx);
+        int released = 0;
+
+        for( Map.Entry<String, AddressPool> entry : pools.entrySet() ) {
+            if( entry.getKey().startsWith(prefix) && pools.remove(entry.getKey(), entry.getValue()) ) {
+                released += entry.getValue().drain(support);
+            }
+        }
+        return released;
+    }
+
+    static private int getInt(@Nullable Properties p, @Nonnull String name, int defaultValue) {
+        String value = ( p == null ? null : p.getProperty(name) );
+
+        if( value == null || value.trim().equals("") ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch( NumberFormatException e ) {
+            logger.warn("Invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    static private int release(@Nonnull IpAddress support, @Nonnull List<String> addressIds) {
+        int released = 0;
+
+        for( String addressId : addressIds ) {
+            try {
+                support.releaseFromPool(addressId);
+                released++;
+            }
+            catch( Exception e ) {
+                logger.warn("Unable to release pooled address " + addressId + ": " + e.getMessage());
+            }
+        }
+        return released;
+    }
+
+    private final String             vlanId;
+    private final LinkedList<String> ready = new LinkedList<String>();
+    private volatile int             size;
+    private volatile long            idleTimeout;
+    private int                      pending;
+    private long                     lastUsed = System.currentTimeMillis();
+    private ScheduledFuture<?>       idleRelease;
+    private CSCloud                  idleProvider;
+    private boolean                  drained;
+
+    AddressPool(@Nullable String vlanId, int size) {
+        this.vlanId = vlanId;
+        this.size = size;
+    }
+
+    /**
+     * Hands out a pre-associated address, if one is ready and the cloud confirms it is still allocated and
+     * unused, and starts replenishing the pool in the background. Addresses that fail the check are dropped
+     * from the pool.
+     * @param provider the requesting provider
+     * @param support the IP address support of the requesting provider
+     * @return the id of a ready address or null if none is ready
+     */
+    @Nullable String take(@Nonnull CSCloud provider, @Nonnull IpAddress support) {
+        String addressId;
+
+        while( true ) {
+            addressId = poll();
+            if( addressId == null ) {
+                break;
+            }
+            try {
+                if( support.isAvailable(addressId) ) {
+                    break;
+                }
+                logger.warn("Dropping pooled address " + addressId + " as it is no longer available");
+            }
+            catch( Exception e ) {
+                logger.warn("Dropping pooled address " + addressId + " as it could not be checked: " + e.getMessage());
+            }
+        }
+        replenish(provider, support);
+        return addressId;
+    }
+
+    /**
+     * Takes the next ready address off the pool without checking it.
+     * @return the address or null if none is ready
+     */
+    synchronized @Nullable String poll() {
+        lastUsed = System.currentTimeMillis();
+        return ready.poll();
+    }
+
+    /**
+     * Counts the associations needed to fill the pool up to its size as pending.
+     * @return the number of associations to start, 0 if the pool is full or drained
+     */
+    synchronized int reserve() {
+        if( drained ) {
+            return 0;
+        }
+        int missing = size - ready.size() - pending;
+
+        if( missing < 1 ) {
+            return 0;
+        }
+        pending += missing;
+        return missing;
+    }
+
+    /**
+     * Records the end of an association started for a {@link #reserve()}.
+     * @param addressId the associated address or null if the association failed
+     * @return true if the address was added to the pool, false if there is none or it must be released
+     */
+    synchronized boolean landed(@Nullable String addressId) {
+        pending--;
+        if( addressId != null && !drained ) {
+            ready.add(addressId);
+            return true;
+        }
+        return false;
+    }
+
+    synchronized int getPending() {
+        return pending;
+    }
+
+    synchronized int getReady() {
+        return ready.size();
+    }
+
+    private void replenish(@Nonnull CSCloud provider, final @Nonnull IpAddress support) {
+        int missing = reserve();
+
+        for( int i = 0; i < missing; i++ ) {
+            provider.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    String addressId = null;
+
+                    try {
+                        addressId = support.associate(vlanId);
+                    }
+                    catch( Exception e ) {
+                        logger.warn("Unable to associate an address for the warm pool: " + e.getMessage());
+                    }
+                    if( !landed(addressId) && addressId != null ) {
+                        release(support, Collections.singletonList(addressId));
+                    }
+                    return null;
+                }
+            });
+        }
+        scheduleIdleRelease(provider, support, idleTimeout);
+    }
+
+    /**
+     * Schedules a check that releases all pooled addresses once the pool has gone unused for the idle timeout.
+     * The provider is held until the check has run or been cancelled so it is still open when it is used.
+     */
+    private synchronized void scheduleIdleRelease(final @Nonnull CSCloud provider, final @Nonnull IpAddress support, long delay) {
+        if( idleRelease != null || drained ) {
+            return;
+        }
+        provider.hold();
+        idleProvider = provider;
+        idleRelease = getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                List<String> surplus;
+
+                try {
+                    synchronized( AddressPool.this ) {
+                        long wait = lastUsed + idleTimeout - System.currentTimeMillis();
+
+                        idleRelease = null;
+                        idleProvider = null;
+                        if( wait > 0L || pending > 0 ) {
+                            // still in use, or outstanding associations need to land so they are released too
+                            scheduleIdleRelease(provider, support, wait > 0L ? wait : 5000L);
+                            return;
+                        }
+                        surplus = new ArrayList<String>(ready);
+                        ready.clear();
+                    }
+                    release(support, surplus);
+                }
+                finally {
+                    provider.release();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the pool and releases its ready addresses.
+     */
+    private int drain(@Nonnull IpAddress support) {
+        return release(support, stop());
+    }
+
+    /**
+     * Stops the pool, so associations still pending are released as they land, and empties it.
+     * @return the addresses that were ready
+     */
+    synchronized @Nonnull List<String> stop() {
+        List<String> surplus = new ArrayList<String>(ready);
+
+        drained = true;
+        if( idleRelease != null ) {
+            if( idleRelease.cancel(false) ) {
+                idleProvider.release();
+            }
+            idleRelease = null;
+            idleProvider = null;
+        }
+        ready.clear();
+        return surplus;
+    }
+}
@@ -22,9 +22,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
@@ -58,6 +60,10 @@ import org.dasein.cloud.network.LoadBalancerSupport;
 import org.dasein.cloud.network.Protocol;
 import org.dasein.cloud.network.RawAddress;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.uom.time.Second;
+import org.dasein.util.uom.time.TimePeriod;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -110,15 +116,40 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
             params.add(new Param("virtualMachineId", onServerId));
             params.add(new Param("ipAddressId", addressId));
 
-            Document doc = new CSMethod(getProvider()).get(CREATE_PORT_FORWARDING_RULE, params);
+            CSMethod method = new CSMethod(getProvider());
+            Document doc = method.get(CREATE_PORT_FORWARDING_RULE, params);
+            Document result = getProvider().waitForJob(doc, "Assigning forwarding rule");
+            NodeList created = ( result == null ? doc : result ).getElementsByTagName("portforwardingrule");
+            IpForwardingRule match = null;
+
+            if( created.getLength() > 0 ) {
+                match = toRule(created.item(0), isId());
+            }
+            if( match == null || match.getProviderRuleId() == null ) {
+                NodeList rules = method.get(LIST_PORT_FORWARDING_RULES, new Param(isId() ? "ipAddressId" : "ipAddress", addressId)).getElementsByTagName("portforwardingrule");
+
+                match = null;
+                for( int i=0; i<rules.getLength(); i++ ) {
+                    IpForwardingRule rule = toRule(rules.item(i), isId());
 
-            getProvider().waitForJob(doc, "Assigning forwarding rule");
-            for( IpForwardingRule rule : listRules(addressId) ) {
-                if( rule.getPublicPort() == publicPort && rule.getPrivatePort() == privatePort && onServerId.equals(rule.getServerId()) && protocol.equals(rule.getProtocol()) && addressId.equals(rule.getAddressId()) ) {
-                    return rule.getProviderRuleId();
+                    if( rule != null && rule.getPublicPort() == publicPort && rule.getPrivatePort() == privatePort && onServerId.equals(rule.getServerId()) && protocol.equals(rule.getProtocol()) ) {
+                        match = rule;
+                        break;
+                    }
+                }
+                if( match == null || match.getProviderRuleId() == null ) {
+                    invalidateRuleIndex();
+                    throw new CloudException("Unable to identify the forwarding rule created for " + addressId + ":" + publicPort);
                 }
             }
-            return null;
+            if( match.getAddressId() == null ) {
+                match.setAddressId(addressId);
+            }
+            if( match.getServerId() == null ) {
+                match.setServerId(onServerId);
+            }
+            addToRuleIndex(match);
+            return match.getProviderRuleId();
         }
         finally {
             APITrace.end();
@@ -146,15 +177,16 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
             try {
                 CSMethod method = new CSMethod(getProvider());
                 Document doc = method.get(LIST_PUBLIC_IP_ADDRESSES, new Param(isId() ? "id" : "ipAddress", addressId));
-                HashMap<String,LoadBalancer> loadBalancers = new HashMap<String,LoadBalancer>();
+                HashMap<String,String> loadBalancers = new HashMap<String,String>();
                 LoadBalancerSupport support = getProvider().getNetworkServices().getLoadBalancerSupport();
                 LoadBalancer lb = (support == null ? null : support.getLoadBalancer(addressId));
                 if( lb != null ) {
-                    loadBalancers.put(addressId, lb);
+                    loadBalancers.put(addressId, lb.getProviderLoadBalancerId());
                 }
                 NodeList matches = doc.getElementsByTagName("publicipaddress");
+                ServerIndex servers = new ServerIndex();
                 for( int i = 0; i < matches.getLength(); i++ ) {
-                    org.dasein.cloud.network.IpAddress addr = toAddress(matches.item(i), loadBalancers);
+                    org.dasein.cloud.network.IpAddress addr = toAddress(matches.item(i), loadBalancers, servers);
                     if( addr != null ) {
                         if( addr.getProviderIpAddressId().equals(addressId) ) {
                             return addr;
@@ -200,18 +232,133 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
         APITrace.begin(getProvider(), "IpAddress.listIpPool");
         try {
             if( version.equals(IPVersion.IPV4) ) {
-                HashMap<String,LoadBalancer> loadBalancers = new HashMap<String,LoadBalancer>();
+                return getProvider().await(listIpPoolConcurrently(version, unassignedOnly));
+            }
+            return Collections.emptyList();
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Lists the IP pool on the shared executor. The load balancers, the virtual machines and every page of public
+     * IP addresses beyond the first are fetched in parallel and merged once all have arrived.
+     */
+    @Nonnull
+    @Override
+    public Future<Iterable<org.dasein.cloud.network.IpAddress>> listIpPoolConcurrently(@Nonnull IPVersion version, final boolean unassignedOnly) throws InternalException, CloudException {
+        if( !version.equals(IPVersion.IPV4) ) {
+            return getProvider().submit(new Callable<Iterable<org.dasein.cloud.network.IpAddress>>() {
+                @Override
+                public Iterable<org.dasein.cloud.network.IpAddress> call() {
+                    return Collections.emptyList();
+                }
+            });
+        }
+        Future<Map<String,String>> loadBalancers = getProvider().submit(new Callable<Map<String,String>>() {
+            @Override
+            public Map<String,String> call() throws Exception {
+                Map<String,String> map = new HashMap<String,String>();
                 LoadBalancerSupport support = getProvider().getNetworkServices().getLoadBalancerSupport();
 
                 if( support != null ) {
                     for( LoadBalancer lb : support.listLoadBalancers() ) {
-                        loadBalancers.put(lb.getProviderLoadBalancerId(), lb);
+                        map.put(lb.getProviderLoadBalancerId(), lb.getProviderLoadBalancerId());
                     }
                 }
-                CSMethod method = new CSMethod(getProvider());
-                Document doc = method.get(LIST_PUBLIC_IP_ADDRESSES, new Param("zoneId", getContext().getRegionId()));
-                ArrayList<org.dasein.cloud.network.IpAddress> addresses = new ArrayList<org.dasein.cloud.network.IpAddress>();
+                return map;
+            }
+        });
+
+        Future<Iterable<VirtualMachine>> vms = getProvider().submit(new Callable<Iterable<VirtualMachine>>() {
+            @Override
+            public Iterable<VirtualMachine> call() throws Exception {
+                return getProvider().getComputeServices().getVirtualMachineSupport().listVirtualMachines();
+            }
+        });
+
+        return submitIpPoolListing(null, unassignedOnly, loadBalancers, new ServerIndex(vms));
+    }
+
+    /**
+     * Lists the public IP addresses associated with the specified network on the shared executor, filtering by
+     * <code>associatednetworkid</code> in the cloud rather than after listing the whole pool. The load balancer
+     * rules are listed for the network only, and addresses that do not report their virtual machine are matched
+     * against the network's virtual machines rather than those of the whole zone.
+     * @param vlanId the network whose addresses are listed
+     * @param vms the pending listing of the virtual machines in the network
+     * @return the addresses of the network, once listed
+     */
+    public @Nonnull Future<Iterable<org.dasein.cloud.network.IpAddress>> listIpPoolForVlanConcurrently(@Nonnull final String vlanId, @Nonnull Future<? extends Iterable<VirtualMachine>> vms) {
+        Future<Map<String,String>> loadBalancers = getProvider().submit(new Callable<Map<String,String>>() {
+            @Override
+            public Map<String,String> call() throws Exception {
+                return listLoadBalancerIds(vlanId);
+            }
+        });
 
+        return submitIpPoolListing(vlanId, false, loadBalancers, new ServerIndex(vms));
+    }
+
+    /**
+     * Maps the public IP addresses of the load balancer rules in a network to their load balancers, whose ids are
+     * the public IP addresses.
+     */
+    private @Nonnull Map<String,String> listLoadBalancerIds(@Nonnull String vlanId) throws InternalException, CloudException {
+        Map<String,String> map = new HashMap<String,String>();
+        CSMethod method = new CSMethod(getProvider());
+        int numPages = 1;
+
+        for( int page = 1; page <= numPages; page++ ) {
+            Document doc;
+
+            try {
+                doc = method.get(LoadBalancers.LIST_LOAD_BALANCER_RULES, new Param("zoneid", getContext().getRegionId()), new Param("networkid", vlanId), new Param("pagesize", "500"), new Param("page", String.valueOf(page)));
+            }
+            catch( CloudException e ) {
+                if( e.getHttpCode() == HttpServletResponse.SC_NOT_FOUND ) {
+                    return map;
+                }
+                throw e;
+            }
+            if( page == 1 ) {
+                Node n = doc.getElementsByTagName("count").item(0);
+
+                if( n != null ) {
+                    int count = Integer.parseInt(n.getFirstChild().getNodeValue().trim());
+
+                    numPages = count / 500;
+                    if( count % 500 > 0 ) {
+                        numPages++;
+                    }
+                }
+            }
+            NodeList rules = doc.getElementsByTagName("loadbalancerrule");
+
+            for( int i=0; i<rules.getLength(); i++ ) {
+                NodeList attributes = rules.item(i).getChildNodes();
+
+                for( int j=0; j<attributes.getLength(); j++ ) {
+                    Node attr = attributes.item(j);
+
+                    if( attr.getNodeName().equalsIgnoreCase("publicip") && attr.hasChildNodes() ) {
+                        String publicIp = attr.getFirstChild().getNodeValue();
+
+                        map.put(publicIp, publicIp);
+                    }
+                }
+            }
+        }
+        return map;
+    }
+
+    private @Nonnull Future<Iterable<org.dasein.cloud.network.IpAddress>> submitIpPoolListing(final @Nullable String vlanId, final boolean unassignedOnly, final @Nonnull Future<Map<String,String>> loadBalancers, final @Nonnull ServerIndex servers) {
+        return getProvider().submit(new Callable<Iterable<org.dasein.cloud.network.IpAddress>>() {
+            @Override
+            public Iterable<org.dasein.cloud.network.IpAddress> call() throws Exception {
+                Document doc = listPublicIpPage(1, vlanId);
+                List<Future<Document>> pages = new ArrayList<Future<Document>>();
                 int numPages = 1;
                 NodeList nodes = doc.getElementsByTagName("count");
                 Node n = nodes.item(0);
@@ -224,39 +371,47 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
                         numPages++;
                     }
                 }
+                for( int page = 2; page <= numPages; page++ ) {
+                    final int nextPage = page;
 
-                for (int page = 1; page <= numPages; page++) {
-                    if (page > 1) {
-                        String nextPage = String.valueOf(page);
-                        doc = method.get(LIST_PUBLIC_IP_ADDRESSES,
-                                new Param("zoneId", getContext().getRegionId()),
-                                new Param("pagesize", "500"),
-                                new Param("page", nextPage)
-                        );
-                    }
+                    pages.add(getProvider().submit(new Callable<Document>() {
+                        @Override
+                        public Document call() throws Exception {
+                            return listPublicIpPage(nextPage, vlanId);
+                        }
+                    }));
+                }
+                Map<String,String> lbs = getProvider().await(loadBalancers);
+                ArrayList<org.dasein.cloud.network.IpAddress> addresses = new ArrayList<org.dasein.cloud.network.IpAddress>();
+                Iterator<Future<Document>> remaining = pages.iterator();
+
+                while( doc != null ) {
                     NodeList matches = doc.getElementsByTagName("publicipaddress");
 
                     for( int i=0; i<matches.getLength(); i++ ) {
-                        org.dasein.cloud.network.IpAddress addr = toAddress(matches.item(i), loadBalancers);
+                        org.dasein.cloud.network.IpAddress addr = toAddress(matches.item(i), lbs, servers);
 
                         if( addr != null && (!unassignedOnly || !addr.isAssigned()) ) {
                             addresses.add(addr);
                         }
                     }
+                    doc = ( remaining.hasNext() ? getProvider().await(remaining.next()) : null );
                 }
                 return addresses;
             }
-            return Collections.emptyList();
-        }
-        finally {
-            APITrace.end();
-        }
+        });
     }
 
-    @Nonnull
-    @Override
-    public Future<Iterable<org.dasein.cloud.network.IpAddress>> listIpPoolConcurrently(@Nonnull IPVersion version, boolean unassignedOnly) throws InternalException, CloudException {
-        return null;  //To change body of implemented methods use File | Settings | File Templates.
+    private @Nonnull Document listPublicIpPage(int page, @Nullable String vlanId) throws InternalException, CloudException {
+        List<Param> params = new ArrayList<Param>();
+
+        params.add(new Param("zoneId", getContext().getRegionId()));
+        if( vlanId != null ) {
+            params.add(new Param("associatednetworkid", vlanId));
+        }
+        params.add(new Param("pagesize", "500"));
+        params.add(new Param("page", String.valueOf(page)));
+        return new CSMethod(getProvider()).get(LIST_PUBLIC_IP_ADDRESSES, params);
     }
 
     @Override
@@ -320,70 +475,200 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
     public @Nonnull Collection<IpForwardingRule> listRules(@Nonnull String addressId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "IpAddress.listRules");
         try {
-            ArrayList<IpForwardingRule> rules = new ArrayList<IpForwardingRule>();
-            Param[] params;
-            
-            if( getProvider().getVersion().greaterThan(CSVersion.CS21) ) {
-                params = new Param[] { new Param("ipaddressid", addressId) };                    
-            }
-            else {
-                params = new Param[] { new Param("ipAddress", addressId) };
+            List<IpForwardingRule> rules = getRuleIndex().byAddress.get(addressId);
+
+            return ( rules == null ? new ArrayList<IpForwardingRule>() : new ArrayList<IpForwardingRule>(rules) );
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Lists the port forwarding rules that forward traffic to the specified virtual machine.
+     * @param serverId the virtual machine to list rules for
+     * @return the rules forwarding to the virtual machine
+     * @throws InternalException an error occurred within Dasein Cloud while listing the rules
+     * @throws CloudException an error occurred with the cloud provider while listing the rules
+     */
+    public @Nonnull Collection<IpForwardingRule> listRulesForServer(@Nonnull String serverId) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "IpAddress.listRulesForServer");
+        try {
+            List<IpForwardingRule> rules = getRuleIndex().byServer.get(serverId);
+
+            return ( rules == null ? new ArrayList<IpForwardingRule>() : new ArrayList<IpForwardingRule>(rules) );
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * All port forwarding rules of the account, indexed by public address and by virtual machine.
+     */
+    static private class RuleIndex {
+        private final List<IpForwardingRule>             rules     = new ArrayList<IpForwardingRule>();
+        private final Map<String,List<IpForwardingRule>> byAddress = new HashMap<String,List<IpForwardingRule>>();
+        private final Map<String,List<IpForwardingRule>> byServer  = new HashMap<String,List<IpForwardingRule>>();
+
+        private void add(@Nonnull IpForwardingRule rule) {
+            rules.add(rule);
+            add(byAddress, rule.getAddressId(), rule);
+            add(byServer, rule.getServerId(), rule);
+        }
+
+        private void add(@Nonnull Map<String,List<IpForwardingRule>> map, @Nullable String key, @Nonnull IpForwardingRule rule) {
+            if( key != null ) {
+                List<IpForwardingRule> rules = map.get(key);
+
+                if( rules == null ) {
+                    rules = new ArrayList<IpForwardingRule>();
+                    map.put(key, rules);
+                }
+                rules.add(rule);
             }
-            Document doc = new CSMethod(getProvider()).get(LIST_PORT_FORWARDING_RULES, params);
-            
-            if( doc == null ) {
-                throw new CloudException("No such IP address: " + addressId);
+        }
+    }
+
+    /**
+     * Provides the port forwarding rules of the account from one paged sweep of
+     * <code>listPortForwardingRules</code>, cached for 30 seconds.
+     */
+    private @Nonnull RuleIndex getRuleIndex() throws InternalException, CloudException {
+        Cache<RuleIndex> cache = Cache.getInstance(getProvider(), "portForwardingRules", RuleIndex.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Second>(30, TimePeriod.SECOND));
+        Iterable<RuleIndex> cached = cache.get(getContext());
+
+        if( cached != null ) {
+            Iterator<RuleIndex> it = cached.iterator();
+
+            if( it.hasNext() ) {
+                return it.next();
             }
-            NodeList matches = doc.getElementsByTagName("portforwardingrule");
-            
-            for( int i=0; i<matches.getLength(); i++ ) {
-                Node node = matches.item(i);
-                
-                if( node != null ) {
-                    IpForwardingRule rule = new IpForwardingRule();
-                    NodeList list = node.getChildNodes();
-    
-                    rule.setAddressId(addressId);
-                    for( int j=0; j<list.getLength(); j++ ) {
-                        Node attr = list.item(j);
-                        
-                        if( attr.getNodeName().equals("publicport") ) {
-                            rule.setPublicPort(Integer.parseInt(attr.getFirstChild().getNodeValue()));                        
-                        }
-                        else if( attr.getNodeName().equals("privateport") ) {
-                            rule.setPrivatePort(Integer.parseInt(attr.getFirstChild().getNodeValue()));                        
+        }
+        RuleIndex index = new RuleIndex();
+        boolean id = isId();
+
+        try {
+            CSMethod method = new CSMethod(getProvider());
+            Param pageParam = new Param("page", "1");
+            List<Param> params = new ArrayList<Param>();
+
+            params.add(new Param("pagesize", "500"));
+            params.add(pageParam);
+
+            int numPages = 1;
+
+            for( int page = 1; page <= numPages; page++ ) {
+                pageParam.setValue(String.valueOf(page));
+                Document doc = method.get(LIST_PORT_FORWARDING_RULES, params);
+
+                if( page == 1 ) {
+                    NodeList nodes = doc.getElementsByTagName("count");
+                    Node n = nodes.item(0);
+
+                    if( n != null ) {
+                        int count = Integer.parseInt(n.getFirstChild().getNodeValue().trim());
+
+                        numPages = count / 500;
+                        if( count % 500 > 0 ) {
+                            numPages++;
                         }
-                        else if( attr.getNodeName().equals("protocol") ) {
-                            rule.setProtocol(Protocol.valueOf(attr.getFirstChild().getNodeValue().toUpperCase()));
-                        } 
-                        else if( attr.getNodeName().equals("id") ) {
-                            rule.setProviderRuleId(attr.getFirstChild().getNodeValue());
-                        } 
-                        else if( attr.getNodeName().equals("virtualmachineid") ) {
-                            rule.setServerId(attr.getFirstChild().getNodeValue());
-                        } 
                     }
-                    if( logger.isDebugEnabled() ) {
-                        logger.debug("listRules(): * " + rule);
+                }
+                NodeList matches = doc.getElementsByTagName("portforwardingrule");
+
+                for( int i=0; i<matches.getLength(); i++ ) {
+                    IpForwardingRule rule = toRule(matches.item(i), id);
+
+                    if( rule != null ) {
+                        index.add(rule);
                     }
-                    rules.add(rule);
                 }
             }
-            return rules;
         }
         catch( RuntimeException e ) {
-            logger.error("listRules(): Runtime exception listing rules for " + addressId + ": " + e.getMessage());
+            logger.error("getRuleIndex(): Runtime exception listing rules: " + e.getMessage());
             e.printStackTrace();
             throw new InternalException(e);
         }
         catch( Error e ) {
-            logger.error("listRules(): Error listing rules for " + addressId + ": " + e.getMessage());
+            logger.error("getRuleIndex(): Error listing rules: " + e.getMessage());
             e.printStackTrace();
             throw new InternalException(e);
         }
-        finally {
-            APITrace.end();
+        cache.put(getContext(), Collections.singletonList(index));
+        return index;
+    }
+
+    /**
+     * Adds a new rule to the cached index, if there is one, without sweeping all rules again. The cached index is
+     * replaced rather than changed since other threads may be reading it.
+     */
+    private void addToRuleIndex(@Nonnull IpForwardingRule rule) {
+        Cache<RuleIndex> cache = Cache.getInstance(getProvider(), "portForwardingRules", RuleIndex.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Second>(30, TimePeriod.SECOND));
+
+        synchronized( RuleIndex.class ) {
+            Iterable<RuleIndex> cached = cache.get(getContext());
+            Iterator<RuleIndex> it = ( cached == null ? null : cached.iterator() );
+
+            if( it == null || !it.hasNext() ) {
+                return;
+            }
+            RuleIndex current = it.next();
+            RuleIndex index = new RuleIndex();
+
+            for( IpForwardingRule r : current.rules ) {
+                if( !rule.getProviderRuleId().equals(r.getProviderRuleId()) ) {
+                    index.add(r);
+                }
+            }
+            index.add(rule);
+            cache.put(getContext(), Collections.singletonList(index));
+        }
+    }
+
+    private void invalidateRuleIndex() {
+        Cache<RuleIndex> cache = Cache.getInstance(getProvider(), "portForwardingRules", RuleIndex.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Second>(30, TimePeriod.SECOND));
+
+        cache.put(getContext(), Collections.<RuleIndex>emptyList());
+    }
+
+    private @Nullable IpForwardingRule toRule(@Nullable Node node, boolean id) {
+        if( node == null ) {
+            return null;
+        }
+        IpForwardingRule rule = new IpForwardingRule();
+        NodeList list = node.getChildNodes();
+
+        for( int j=0; j<list.getLength(); j++ ) {
+            Node attr = list.item(j);
+
+            if( !attr.hasChildNodes() ) {
+                continue;
+            }
+            if( attr.getNodeName().equals("publicport") ) {
+                rule.setPublicPort(Integer.parseInt(attr.getFirstChild().getNodeValue()));
+            }
+            else if( attr.getNodeName().equals("privateport") ) {
+                rule.setPrivatePort(Integer.parseInt(attr.getFirstChild().getNodeValue()));
+            }
+            else if( attr.getNodeName().equals("protocol") ) {
+                rule.setProtocol(Protocol.valueOf(attr.getFirstChild().getNodeValue().toUpperCase()));
+            }
+            else if( attr.getNodeName().equals("id") ) {
+                rule.setProviderRuleId(attr.getFirstChild().getNodeValue());
+            }
+            else if( attr.getNodeName().equals("virtualmachineid") ) {
+                rule.setServerId(attr.getFirstChild().getNodeValue());
+            }
+            else if( attr.getNodeName().equals(id ? "ipaddressid" : "ipaddress") ) {
+                rule.setAddressId(attr.getFirstChild().getNodeValue());
+            }
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("toRule(): * " + rule);
         }
+        return rule;
     }
 
     @Override
@@ -430,56 +715,7 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
             if( !version.equals(IPVersion.IPV4) ) {
                 throw new OperationNotSupportedException("Only IPv4 is currently supported");
             }
-            //if( isBasic() ) {
-            Document doc = new CSMethod(getProvider()).get(ASSOCIATE_IP_ADDRESS,  new Param("zoneId", getContext().getRegionId()));
-            // }
-            //else {
-            //  throw new
-            //doc = method.get(method.buildUrl(ASSOCIATE_IP_ADDRESS,  new Param[] { new Param("zoneId", getProvider().getContext().getRegionId())  }))
-            //}
-            NodeList matches;
-
-            if( getProvider().getVersion().greaterThan(CSVersion.CS21) ) {
-                matches = doc.getElementsByTagName("id");
-                if (matches.getLength() == 0) {
-                    matches = doc.getElementsByTagName("jobid"); //4.1
-                }
-            }
-            else {
-                matches = doc.getElementsByTagName("ipaddress");
-            }
-            String id = null;
-            if( matches.getLength() > 0 ) {
-                id = matches.item(0).getFirstChild().getNodeValue();
-            }
-            if( id == null ) {
-                throw new CloudException("Failed to request an IP address without error");
-            }
-            Document responseDoc = getProvider().waitForJob(doc, ASSOCIATE_IP_ADDRESS);
-            if (responseDoc != null) {
-                NodeList nodeList = responseDoc.getElementsByTagName("ipaddress");
-                if (nodeList.getLength() > 0) {
-                    Node ipAddress = nodeList.item(0);
-                    NodeList attributes = ipAddress.getChildNodes();
-                    for (int i = 0; i<attributes.getLength(); i++) {
-                        Node attribute = attributes.item(i);
-                        String tmpname = attribute.getNodeName().toLowerCase();
-                        String value;
-
-                        if( attribute.getChildNodes().getLength() > 0 ) {
-                            value = attribute.getFirstChild().getNodeValue();
-                        }
-                        else {
-                            value = null;
-                        }
-                        if (tmpname.equalsIgnoreCase("id")) {
-                            id = value;
-                            break;
-                        }
-                    }
-                }
-            }
-            return id;
+            return requestFromPool(null);
         }
         finally {
             APITrace.end();
@@ -499,58 +735,166 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
             if( !version.equals(IPVersion.IPV4) ) {
                 throw new OperationNotSupportedException("Only IPv4 is currently supported");
             }
-            CSMethod method = new CSMethod(getProvider());
-            Document doc = method.get(ASSOCIATE_IP_ADDRESS,
-                    new Param("zoneId", getContext().getRegionId()),
-                    new Param("networkId", vlanId)
-            );
-            NodeList matches;
-
-            if( getProvider().getVersion().greaterThan(CSVersion.CS21) ) {
-                matches = doc.getElementsByTagName("id");
-                if (matches.getLength() == 0) {
-                    matches = doc.getElementsByTagName("jobid"); //4.1
-                }
+            return requestFromPool(vlanId);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    private @Nonnull String requestFromPool(@Nullable String vlanId) throws InternalException, CloudException {
+        AddressPool pool = AddressPool.getInstance(getProvider(), vlanId);
+
+        if( pool != null ) {
+            String id = pool.take(getProvider(), this);
+
+            if( id != null ) {
+                return id;
             }
-            else {
-                matches = doc.getElementsByTagName("ipaddress");
+        }
+        return associate(vlanId);
+    }
+
+    /**
+     * Releases the addresses held by the warm pools of the current zone, if warm pools are enabled, for
+     * example before shutting down. The pools start over with the next request for an address.
+     * @return the number of addresses released
+     */
+    public int releasePooledAddresses() {
+        APITrace.begin(getProvider(), "IpAddress.releasePooledAddresses");
+        try {
+            return AddressPool.drain(getProvider(), this);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Checks that an address still exists, is allocated and is not in use by a virtual machine, for NAT, by a
+     * port forwarding rule or by a load balancer rule.
+     * @param addressId the address to check
+     * @return true if the address can be handed out
+     */
+    boolean isAvailable(@Nonnull String addressId) throws InternalException, CloudException {
+        Document doc;
+
+        try {
+            doc = new CSMethod(getProvider()).get(LIST_PUBLIC_IP_ADDRESSES, new Param(isId() ? "id" : "ipAddress", addressId));
+        }
+        catch( CSException e ) {
+            if( e.getHttpCode() == 431 ) {
+                return false;
             }
+            throw e;
+        }
+        NodeList matches = doc.getElementsByTagName("publicipaddress");
+
+        for( int i=0; i<matches.getLength(); i++ ) {
+            NodeList attributes = matches.item(i).getChildNodes();
+            boolean available = true;
             String id = null;
-            if( matches.getLength() > 0 ) {
-                id = matches.item(0).getFirstChild().getNodeValue();
-            }
-            if( id == null ) {
-                throw new CloudException("Failed to request an IP address without error");
-            }
-            Document responseDoc = getProvider().waitForJob(doc, ASSOCIATE_IP_ADDRESS);
-            if (responseDoc != null) {
-                NodeList nodeList = responseDoc.getElementsByTagName("ipaddress");
-                if (nodeList.getLength() > 0) {
-                    Node ipAddress = nodeList.item(0);
-                    NodeList attributes = ipAddress.getChildNodes();
-                    for (int i = 0; i<attributes.getLength(); i++) {
-                        Node attribute = attributes.item(i);
-                        String tmpname = attribute.getNodeName().toLowerCase();
-                        String value;
-
-                        if( attribute.getChildNodes().getLength() > 0 ) {
-                            value = attribute.getFirstChild().getNodeValue();
-                        }
-                        else {
-                            value = null;
-                        }
-                        if (tmpname.equalsIgnoreCase("id")) {
-                            id = value;
-                            break;
-                        }
-                    }
+
+            for( int j=0; j<attributes.getLength(); j++ ) {
+                Node n = attributes.item(j);
+                String name = n.getNodeName().toLowerCase();
+                String value = ( n.hasChildNodes() ? n.getFirstChild().getNodeValue() : null );
+
+                if( value == null ) {
+                    continue;
+                }
+                if( name.equals("id") || (name.equals("ipaddress") && id == null) ) {
+                    id = value;
+                }
+                else if( name.equals("state") && !value.equalsIgnoreCase("allocated") ) {
+                    available = false;
+                }
+                else if( name.equals("virtualmachineid") ) {
+                    available = false;
+                }
+                else if( (name.equals("isstaticnat") || name.equals("issourcenat")) && value.equalsIgnoreCase("true") ) {
+                    available = false;
                 }
             }
-            return id;
+            if( addressId.equals(id) ) {
+                return available && !hasRules(LIST_PORT_FORWARDING_RULES, isId() ? "ipAddressId" : "ipAddress", addressId, "portforwardingrule")
+                        && !hasRules(LoadBalancers.LIST_LOAD_BALANCER_RULES, isId() ? "publicIpId" : "publicIp", addressId, "loadbalancerrule");
+            }
         }
-        finally {
-            APITrace.end();
+        return false;
+    }
+
+    private boolean hasRules(@Nonnull String command, @Nonnull String filter, @Nonnull String addressId, @Nonnull String tag) throws InternalException, CloudException {
+        Document doc;
+
+        try {
+            doc = new CSMethod(getProvider()).get(command, new Param(filter, addressId));
+        }
+        catch( CSException e ) {
+            if( e.getHttpCode() == 431 ) {
+                return false;
+            }
+            throw e;
+        }
+        return ( doc.getElementsByTagName(tag).getLength() > 0 );
+    }
+
+    /**
+     * Associates a new public IP address with the zone or, if specified, the network.
+     * @param vlanId the network to associate the address with, if any
+     * @return the id of the new address
+     */
+    @Nonnull String associate(@Nullable String vlanId) throws InternalException, CloudException {
+        List<Param> params = new ArrayList<Param>();
+
+        params.add(new Param("zoneId", getContext().getRegionId()));
+        if( vlanId != null ) {
+            params.add(new Param("networkId", vlanId));
+        }
+        Document doc = new CSMethod(getProvider()).get(ASSOCIATE_IP_ADDRESS, params);
+        NodeList matches;
+
+        if( getProvider().getVersion().greaterThan(CSVersion.CS21) ) {
+            matches = doc.getElementsByTagName("id");
+            if (matches.getLength() == 0) {
+                matches = doc.getElementsByTagName("jobid"); //4.1
+            }
         }
+        else {
+            matches = doc.getElementsByTagName("ipaddress");
+        }
+        String id = null;
+        if( matches.getLength() > 0 ) {
+            id = matches.item(0).getFirstChild().getNodeValue();
+        }
+        if( id == null ) {
+            throw new CloudException("Failed to request an IP address without error");
+        }
+        Document responseDoc = getProvider().waitForJob(doc, ASSOCIATE_IP_ADDRESS);
+        if (responseDoc != null) {
+            NodeList nodeList = responseDoc.getElementsByTagName("ipaddress");
+            if (nodeList.getLength() > 0) {
+                Node ipAddress = nodeList.item(0);
+                NodeList attributes = ipAddress.getChildNodes();
+                for (int i = 0; i<attributes.getLength(); i++) {
+                    Node attribute = attributes.item(i);
+                    String tmpname = attribute.getNodeName().toLowerCase();
+                    String value;
+
+                    if( attribute.getChildNodes().getLength() > 0 ) {
+                        value = attribute.getFirstChild().getNodeValue();
+                    }
+                    else {
+                        value = null;
+                    }
+                    if (tmpname.equalsIgnoreCase("id")) {
+                        id = value;
+                        break;
+                    }
+                }
+            }
+        }
+        return id;
     }
 
     @Override
@@ -564,6 +908,7 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
         try {
             Document doc = new CSMethod(getProvider()).get(STOP_FORWARD, new Param("id", ruleId));
             getProvider().waitForJob(doc, STOP_FORWARD);
+            invalidateRuleIndex();
         }
         finally {
             if( logger.isTraceEnabled() ) {
@@ -578,7 +923,40 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
         return IPVersion.IPV4.equals(ofVersion);
     }
 
-    private @Nullable org.dasein.cloud.network.IpAddress toAddress(@Nullable Node node, @Nonnull Map<String,LoadBalancer> loadBalancers) throws InternalException, CloudException {
+    /**
+     * Maps public IP addresses to the virtual machines holding them. The virtual machines are listed at most once,
+     * when an address first fails to report its virtual machine, unless a listing of the only candidates is given.
+     */
+    private class ServerIndex {
+        private Future<? extends Iterable<VirtualMachine>> pending;
+        private Map<String,String>                         serverIds;
+
+        ServerIndex() { }
+
+        ServerIndex(@Nonnull Future<? extends Iterable<VirtualMachine>> pending) {
+            this.pending = pending;
+        }
+
+        @Nullable String getServerId(@Nonnull String ipAddress) throws InternalException, CloudException {
+            if( serverIds == null ) {
+                serverIds = indexServersByPublicIp(pending == null ? getProvider().getComputeServices().getVirtualMachineSupport().listVirtualMachines() : getProvider().await(pending));
+            }
+            return serverIds.get(ipAddress);
+        }
+    }
+
+    private @Nonnull Map<String,String> indexServersByPublicIp(@Nonnull Iterable<VirtualMachine> vms) {
+        Map<String,String> serverIds = new HashMap<String,String>();
+
+        for( VirtualMachine vm : vms ) {
+            for( RawAddress addr : vm.getPublicAddresses() ) {
+                serverIds.put(addr.getIpAddress(), vm.getProviderVirtualMachineId());
+            }
+        }
+        return serverIds;
+    }
+
+    private @Nullable org.dasein.cloud.network.IpAddress toAddress(@Nullable Node node, @Nonnull Map<String,String> loadBalancers, @Nonnull ServerIndex servers) throws InternalException, CloudException {
         if( node == null ) {
             return null;
         }
@@ -633,20 +1011,16 @@ public class IpAddress extends AbstractIpAddressSupport<CSCloud> {
                 }
             }
         }
-        LoadBalancer lb = loadBalancers.get(address.getRawAddress().getIpAddress());
+        String lbId = loadBalancers.get(address.getRawAddress().getIpAddress());
             
-        if( lb != null ) {
-            address.setProviderLoadBalancerId(lb.getProviderLoadBalancerId());
+        if( lbId != null ) {
+            address.setProviderLoadBalancerId(lbId);
         }
         if( address.getServerId() == null ) {
-            for( VirtualMachine vm : getProvider().getComputeServices().getVirtualMachineSupport().listVirtualMachines() ) {
-                RawAddress[] addrs = vm.getPublicAddresses();
-                
-                for( RawAddress addr : addrs ) {
-                    if( addr.getIpAddress().equals(address.getRawAddress().getIpAddress()) ) {
-                        address.setServerId(vm.getProviderVirtualMachineId());
-                    }
-                }
+            String serverId = servers.getServerId(address.getRawAddress().getIpAddress());
+
+            if( serverId != null ) {
+                address.setServerId(serverId);
             }
         }
         return address;
@@ -21,6 +21,10 @@ package org.dasein.cloud.cloudstack.network;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -36,12 +40,15 @@ import org.dasein.cloud.cloudstack.CSException;
 import org.dasein.cloud.cloudstack.CSMethod;
 import org.dasein.cloud.cloudstack.CSVersion;
 import org.dasein.cloud.cloudstack.Param;
-import org.dasein.cloud.compute.VirtualMachine;
 import org.dasein.cloud.compute.VmState;
 import org.dasein.cloud.dc.DataCenter;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.network.*;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.uom.time.Second;
+import org.dasein.util.uom.time.TimePeriod;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -67,28 +74,7 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
         APITrace.begin(getProvider(), "LB.addServers");
         try {
             try {
-                LoadBalancer lb = getLoadBalancer(toLoadBalancerId);
-
-                if( lb == null ) {
-                    throw new CloudException("No such load balancer: " + toLoadBalancerId);
-                }
-                if( serverIds == null || serverIds.length == 0 ) {
-                    return;
-                }
-                for( LbListener listener : lb.getListeners() ) {
-                    String ruleId = getVmOpsRuleId(listener.getAlgorithm(), toLoadBalancerId, listener.getPublicPort(), listener.getPrivatePort(), lb.getProviderVlanId());
-                    StringBuilder str = new StringBuilder();
-
-                    for( int i=0; i<serverIds.length; i++ ) {
-                        str.append(serverIds[i]);
-                        if( i < serverIds.length-1 ) {
-                            str.append(",");
-                        }
-                    }
-                    Document doc = new CSMethod(getProvider()).get(ASSIGN_TO_LOAD_BALANCER_RULE, new Param("id", ruleId), new Param("virtualMachineIds", str.toString()));
-
-                    getProvider().waitForJob(doc, "Add Server");
-                }
+                updateMembers(toLoadBalancerId, serverIds, ASSIGN_TO_LOAD_BALANCER_RULE, "Add Server");
             }
             catch( RuntimeException e ) {
                 throw new InternalException(e);
@@ -102,6 +88,121 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
         }
     }
 
+    static private final int MAX_SERVERS_PER_CALL = 100;
+
+    /**
+     * Adds servers to or removes them from every rule of a load balancer. The rule ids come from a single rule
+     * listing. The rules are updated concurrently on the shared executor; each rule gets one call per chunk of at
+     * most {@link #MAX_SERVERS_PER_CALL} servers, issued one after the other so that a rule never has more than one
+     * membership job running.
+     */
+    private void updateMembers(@Nonnull String loadBalancerId, @Nullable String[] serverIds, @Nonnull final String command, @Nonnull final String jobName) throws CloudException, InternalException {
+        List<String> ruleIds = listRuleIds(loadBalancerId);
+
+        if( ruleIds == null ) {
+            throw new CloudException("No such load balancer: " + loadBalancerId);
+        }
+        if( serverIds == null || serverIds.length == 0 ) {
+            return;
+        }
+        final List<String> chunks = new ArrayList<String>();
+
+        for( int start = 0; start < serverIds.length; start += MAX_SERVERS_PER_CALL ) {
+            StringBuilder str = new StringBuilder();
+            int end = Math.min(serverIds.length, start + MAX_SERVERS_PER_CALL);
+
+            for( int i=start; i<end; i++ ) {
+                str.append(serverIds[i]);
+                if( i < end-1 ) {
+                    str.append(",");
+                }
+            }
+            chunks.add(str.toString());
+        }
+        List<Future<Void>> calls = new ArrayList<Future<Void>>();
+
+        for( final String ruleId : ruleIds ) {
+            calls.add(getProvider().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for( String ids : chunks ) {
+                        Document doc = new CSMethod(getProvider()).get(command, new Param("id", ruleId), new Param("virtualMachineIds", ids));
+
+                        getProvider().waitForJob(doc, jobName);
+                    }
+                    return null;
+                }
+            }));
+        }
+        CloudException cloudError = null;
+        InternalException internalError = null;
+
+        for( Future<Void> call : calls ) {
+            try {
+                getProvider().await(call);
+            }
+            catch( CloudException e ) {
+                if( cloudError == null ) {
+                    cloudError = e;
+                }
+            }
+            catch( InternalException e ) {
+                if( internalError == null ) {
+                    internalError = e;
+                }
+            }
+        }
+        if( cloudError != null ) {
+            throw cloudError;
+        }
+        if( internalError != null ) {
+            throw internalError;
+        }
+    }
+
+    /**
+     * @return the ids of all rules of the load balancer or null if there is no such load balancer
+     */
+    private @Nullable List<String> listRuleIds(@Nonnull String loadBalancerId) throws CloudException, InternalException {
+        boolean isId = isId(loadBalancerId);
+        Document doc;
+
+        try {
+            doc = new CSMethod(getProvider()).get(LIST_LOAD_BALANCER_RULES, new Param(isId ? "publicIpId" : "publicIp", loadBalancerId));
+        }
+        catch( CSException e ) {
+            if( e.getHttpCode() == 431 ) {
+                return null;
+            }
+            throw e;
+        }
+        NodeList rules = doc.getElementsByTagName("loadbalancerrule");
+        List<String> ruleIds = new ArrayList<String>();
+
+        for( int i=0; i<rules.getLength(); i++ ) {
+            NodeList attributes = rules.item(i).getChildNodes();
+            String ruleId = null;
+            String publicIp = null;
+
+            for( int j=0; j<attributes.getLength(); j++ ) {
+                Node n = attributes.item(j);
+                String name = n.getNodeName().toLowerCase();
+                String value = ( n.getChildNodes().getLength() > 0 ? n.getFirstChild().getNodeValue() : null );
+
+                if( name.equals("publicip") ) {
+                    publicIp = value;
+                }
+                else if( name.equals("id") ) {
+                    ruleId = value;
+                }
+            }
+            if( ruleId != null && (isId || publicIp == null || publicIp.equals(loadBalancerId)) ) {
+                ruleIds.add(ruleId);
+            }
+        }
+        return ( ruleIds.isEmpty() ? null : ruleIds );
+    }
+
     @Override
     public @Nonnull String createLoadBalancer(@Nonnull LoadBalancerCreateOptions options) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "LB.create");
@@ -119,11 +220,16 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
                     createCloudstack22Rule(options.getName(), listener.getAlgorithm(), options.getProviderIpAddressId(), listener.getPublicPort(), listener.getPrivatePort());
                 }
             }
+            List<String> serverIds = new ArrayList<String>();
+
             for( LoadBalancerEndpoint endpoint : options.getEndpoints() ) {
                 if( endpoint.getEndpointType().equals(LbEndpointType.VM) ) {
-                    addServers(publicAddress.getRawAddress().getIpAddress(), endpoint.getEndpointValue());
+                    serverIds.add(endpoint.getEndpointValue());
                 }
             }
+            if( !serverIds.isEmpty() ) {
+                addServers(publicAddress.getRawAddress().getIpAddress(), serverIds.toArray(new String[serverIds.size()]));
+            }
             
             String lbId = getRuleId(publicAddress.getRawAddress().getIpAddress());
 
@@ -249,7 +355,7 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
             Collection<LoadBalancer> lbs;
             Node node = matches.item(i);
             
-            toRule(node, current);
+            toRule(node, current, null);
             lbs = current.values();
             if( lbs.size() > 0 ) {
                 return;
@@ -261,7 +367,7 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
             Collection<LoadBalancer> lbs;
             Node node = matches.item(i);
             
-            toRule(node, current);
+            toRule(node, current, null);
             lbs = current.values();
             if( lbs.size() > 0 ) {
                 return;
@@ -307,7 +413,7 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
             Collection<LoadBalancer> lbs;
             Node node = matches.item(i);
             
-            toRule(node, current);
+            toRule(node, current, null);
             lbs = current.values();
             if( lbs.size() > 0 ) {
                 return;
@@ -319,7 +425,7 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
             Collection<LoadBalancer> lbs;
             Node node = matches.item(i);
             
-            toRule(node, current);
+            toRule(node, current, null);
             lbs = current.values();
             if( lbs.size() > 0 ) {
                 return;
@@ -361,12 +467,14 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
 
                 final Document doc = new CSMethod(getProvider()).get(LIST_LOAD_BALANCER_RULES, new Param(key, loadBalancerId));
                 NodeList rules = doc.getElementsByTagName("loadbalancerrule");
+                RuleMembers members = new RuleMembers();
 
                 for( int i=0; i<rules.getLength(); i++ ) {
                     Node node = rules.item(i);
 
-                    toRule(node, matches);
+                    toRule(node, matches, members);
                 }
+                members.apply(matches);
                 return matches.get(loadBalancerId);
             }
             catch( CSException e ) {
@@ -385,43 +493,11 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
     public @Nonnull Iterable<ResourceStatus> listLoadBalancerStatus() throws CloudException, InternalException {
         APITrace.begin(getProvider(), "LB.listLoadBalancerStatus");
         try {
-            Map<String,LoadBalancer> matches = new HashMap<String,LoadBalancer>();
-            CSMethod method = new CSMethod(getProvider());
-
             try {
-                Document doc = method.get(LIST_LOAD_BALANCER_RULES);
-
-                int numPages = 1;
-                NodeList nodes = doc.getElementsByTagName("count");
-                Node n = nodes.item(0);
-                if (n != null) {
-                    String value = n.getFirstChild().getNodeValue().trim();
-                    int count = Integer.parseInt(value);
-                    numPages = count/500;
-                    int remainder = count % 500;
-                    if (remainder > 0) {
-                        numPages++;
-                    }
-                }
-
-                for (int page = 1; page <= numPages; page++) {
-                    if (page > 1) {
-                        String nextPage = String.valueOf(page);
-                        doc = method.get(LIST_LOAD_BALANCER_RULES, new Param("pagesize", "500"), new Param("page", nextPage));
-                    }
-                    NodeList rules = doc.getElementsByTagName("loadbalancerrule");
-
-                    for( int i=0; i<rules.getLength(); i++ ) {
-                        Node node = rules.item(i);
-
-                        toRule(node, matches);
-                    }
-                }
                 final List<ResourceStatus> results = new ArrayList<ResourceStatus>();
-                for( LoadBalancer lb : matches.values() ) {
-                    if( matchesRegion(lb.getProviderLoadBalancerId()) ) {
-                        results.add(new ResourceStatus(lb.getProviderLoadBalancerId(), lb.getCurrentState()));
-                    }
+
+                for( LoadBalancer lb : listRegionLoadBalancers(null) ) {
+                    results.add(new ResourceStatus(lb.getProviderLoadBalancerId(), lb.getCurrentState()));
                 }
                 return results;
             }
@@ -585,12 +661,14 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
                 return Collections.emptyList();
             }
             final List<LoadBalancerEndpoint> endpoints = new ArrayList<LoadBalancerEndpoint>();
+            @SuppressWarnings("deprecation") String[] serverIds = lb.getProviderServerIds();
 
-            //noinspection deprecation
-            for( String serverId : lb.getProviderServerIds() ) {
-                VirtualMachine vm = getProvider().getComputeServices().getVirtualMachineSupport().getVirtualMachine(serverId);
+            if( serverIds.length > 0 ) {
+                Map<String,Object> states = getServerStates();
 
-                endpoints.add(LoadBalancerEndpoint.getInstance(LbEndpointType.VM, serverId, vm != null && vm.getCurrentState().equals(VmState.RUNNING) ? LbEndpointState.ACTIVE : LbEndpointState.INACTIVE));
+                for( String serverId : serverIds ) {
+                    endpoints.add(LoadBalancerEndpoint.getInstance(LbEndpointType.VM, serverId, VmState.RUNNING.equals(states.get(serverId)) ? LbEndpointState.ACTIVE : LbEndpointState.INACTIVE));
+                }
             }
             return endpoints;
         }
@@ -599,86 +677,250 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
         }
     }
 
+    static private class ServerStates {
+        private final Map<String,Object> states = new HashMap<String,Object>();
+    }
+
+    /**
+     * Provides the state of every virtual machine in the region from one status listing, shared by all load
+     * balancers for 15 seconds so that polling many load balancers does not look up each member separately.
+     */
+    private @Nonnull Map<String,Object> getServerStates() throws CloudException, InternalException {
+        Cache<ServerStates> cache = Cache.getInstance(getProvider(), "lbServerStates", ServerStates.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Second>(15, TimePeriod.SECOND));
+        Iterable<ServerStates> cached = cache.get(getContext());
+
+        if( cached != null ) {
+            Iterator<ServerStates> it = cached.iterator();
+
+            if( it.hasNext() ) {
+                return it.next().states;
+            }
+        }
+        ServerStates current = new ServerStates();
+
+        for( ResourceStatus status : getProvider().getComputeServices().getVirtualMachineSupport().listVirtualMachineStatus() ) {
+            current.states.put(status.getProviderResourceId(), status.getResourceStatus());
+        }
+        cache.put(getContext(), Collections.singletonList(current));
+        return current.states;
+    }
+
     @Override
     public @Nonnull Iterable<LoadBalancer> listLoadBalancers() throws CloudException, InternalException {
         APITrace.begin(getProvider(), "LB.listLoadBalancers");
         try {
-            Map<String,LoadBalancer> matches = new HashMap<String,LoadBalancer>();
-            CSMethod method = new CSMethod(getProvider());
-            Document doc = method.get(LIST_LOAD_BALANCER_RULES);
+            RuleMembers members = new RuleMembers();
+            Collection<LoadBalancer> results = listRegionLoadBalancers(members);
+
+            members.apply(results);
+            return results;
+        }
+        catch( CloudException e ) {
+            if( e.getHttpCode() == HttpServletResponse.SC_NOT_FOUND ) {
+                return Collections.emptyList();
+            }
+            throw e;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Lists the load balancers of the current region. Rules are requested for the zone and any rule that does not
+     * report its zone is checked against a single listing of the zone's public IP addresses.
+     * @param members collects the rules whose members should be fetched, null if the members are not needed
+     * @return the load balancers in the current region
+     */
+    private @Nonnull Collection<LoadBalancer> listRegionLoadBalancers(@Nullable RuleMembers members) throws InternalException, CloudException {
+        Map<String,LoadBalancer> matches = new HashMap<String,LoadBalancer>();
+        Set<String> unzoned = new HashSet<String>();
+        String regionId = getContext().getRegionId();
+        CSMethod method = new CSMethod(getProvider());
+        Document doc = method.get(LIST_LOAD_BALANCER_RULES, new Param("zoneid", regionId));
 
-            int numPages = 1;
-            NodeList nodes = doc.getElementsByTagName("count");
-            Node n = nodes.item(0);
-            if (n != null) {
-                String value = n.getFirstChild().getNodeValue().trim();
-                int count = Integer.parseInt(value);
-                numPages = count/500;
-                int remainder = count % 500;
-                if (remainder > 0) {
-                    numPages++;
+        int numPages = 1;
+        NodeList nodes = doc.getElementsByTagName("count");
+        Node n = nodes.item(0);
+        if (n != null) {
+            String value = n.getFirstChild().getNodeValue().trim();
+            int count = Integer.parseInt(value);
+            numPages = count/500;
+            int remainder = count % 500;
+            if (remainder > 0) {
+                numPages++;
+            }
+        }
+
+        for (int page = 1; page <= numPages; page++) {
+            if (page > 1) {
+                String nextPage = String.valueOf(page);
+                doc = method.get(LIST_LOAD_BALANCER_RULES, new Param("zoneid", regionId), new Param("pagesize", "500"), new Param("page", nextPage));
+            }
+            NodeList rules = doc.getElementsByTagName("loadbalancerrule");
+
+            for( int i=0; i<rules.getLength(); i++ ) {
+                Node node = rules.item(i);
+                String zoneId = null, publicIp = null;
+                NodeList attributes = node.getChildNodes();
+
+                for( int j=0; j<attributes.getLength(); j++ ) {
+                    Node attr = attributes.item(j);
+
+                    if( attr.getNodeName().equalsIgnoreCase("zoneid") && attr.hasChildNodes() ) {
+                        zoneId = attr.getFirstChild().getNodeValue();
+                    }
+                    else if( attr.getNodeName().equalsIgnoreCase("publicip") && attr.hasChildNodes() ) {
+                        publicIp = attr.getFirstChild().getNodeValue();
+                    }
                 }
+                if( zoneId != null && !zoneId.equalsIgnoreCase(regionId) ) {
+                    continue;
+                }
+                if( zoneId == null && publicIp != null ) {
+                    unzoned.add(publicIp);
+                }
+                toRule(node, matches, members);
             }
+        }
+        if( !unzoned.isEmpty() ) {
+            Set<String> regionAddresses = listRegionAddresses();
 
-            for (int page = 1; page <= numPages; page++) {
-                if (page > 1) {
-                    String nextPage = String.valueOf(page);
-                    doc = method.get(LIST_LOAD_BALANCER_RULES, new Param("pagesize", "500"), new Param("page", nextPage));
+            for( String publicIp : unzoned ) {
+                if( !regionAddresses.contains(publicIp) ) {
+                    matches.remove(publicIp);
                 }
-                NodeList rules = doc.getElementsByTagName("loadbalancerrule");
+            }
+        }
+        return matches.values();
+    }
 
-                for( int i=0; i<rules.getLength(); i++ ) {
-                    Node node = rules.item(i);
+    /**
+     * @return the ids and addresses of all public IP addresses in the current region
+     */
+    private @Nonnull Set<String> listRegionAddresses() throws InternalException, CloudException {
+        Set<String> addresses = new HashSet<String>();
+        CSMethod method = new CSMethod(getProvider());
+        Param pageParam = new Param("page", "1");
+        List<Param> params = new ArrayList<Param>();
+
+        params.add(new Param("zoneId", getContext().getRegionId()));
+        params.add(new Param("pagesize", "500"));
+        params.add(pageParam);
+
+        int numPages = 1;
+
+        for( int page = 1; page <= numPages; page++ ) {
+            pageParam.setValue(String.valueOf(page));
+            Document doc = method.get("listPublicIpAddresses", params);
+
+            if( page == 1 ) {
+                NodeList nodes = doc.getElementsByTagName("count");
+                Node n = nodes.item(0);
 
-                    toRule(node, matches);
+                if( n != null ) {
+                    int count = Integer.parseInt(n.getFirstChild().getNodeValue().trim());
+
+                    numPages = count / 500;
+                    if( count % 500 > 0 ) {
+                        numPages++;
+                    }
                 }
             }
-            final List<LoadBalancer> results = new ArrayList<LoadBalancer>();
-            for( LoadBalancer lb : matches.values() ) {
-                if( matchesRegion(lb.getProviderLoadBalancerId()) ) {
-                    results.add(lb);
+            NodeList matches = doc.getElementsByTagName("publicipaddress");
+
+            for( int i=0; i<matches.getLength(); i++ ) {
+                NodeList attributes = matches.item(i).getChildNodes();
+
+                for( int j=0; j<attributes.getLength(); j++ ) {
+                    Node child = attributes.item(j);
+                    String name = child.getNodeName().toLowerCase();
+
+                    if( (name.equals("id") || name.equals("ipaddress")) && child.hasChildNodes() ) {
+                        addresses.add(child.getFirstChild().getNodeValue());
+                    }
                 }
             }
-            return results;
         }
-        catch( CloudException e ) {
-            if( e.getHttpCode() == HttpServletResponse.SC_NOT_FOUND ) {
-                return Collections.emptyList();
+        return addresses;
+    }
+
+    /**
+     * Collects the rules of the load balancers being listed and fetches their members once the listing is complete,
+     * only for the load balancers actually returned, with a few concurrent fetches on the shared executor.
+     */
+    private class RuleMembers {
+        static private final int MAX_CONCURRENT = 8;
+
+        private final Map<String,List<String>> rulesByAddress = new HashMap<String,List<String>>();
+
+        void fetch(@Nullable String publicIp, @Nullable String ruleId) {
+            if( publicIp == null || ruleId == null ) {
+                return;
             }
-            throw e;
+            List<String> ruleIds = rulesByAddress.get(publicIp);
+
+            if( ruleIds == null ) {
+                ruleIds = new ArrayList<String>();
+                rulesByAddress.put(publicIp, ruleIds);
+            }
+            ruleIds.add(ruleId);
         }
-        finally {
-            APITrace.end();
+
+        void apply(@Nonnull Map<String,LoadBalancer> loadBalancers) throws InternalException, CloudException {
+            apply(loadBalancers.values());
         }
-    }
 
-    boolean matchesRegion(@Nonnull String addressId) throws InternalException, CloudException {
-        // TODO: add trace
-        CSMethod method = new CSMethod(getProvider());
-        Document doc = method.get("listPublicIpAddresses", new Param(isId(addressId) ? "ipAddressId" : "ipAddress", addressId));
+        void apply(@Nonnull Collection<LoadBalancer> loadBalancers) throws InternalException, CloudException {
+            final Queue<String> queue = new ConcurrentLinkedQueue<String>();
+            final Map<String,Collection<String>> serversByRule = new ConcurrentHashMap<String,Collection<String>>();
 
-        NodeList matches = doc.getElementsByTagName("publicipaddress");
-        for( int i=0; i<matches.getLength(); i++ ) {
-            Node n = matches.item(i);
-            NodeList attributes = n.getChildNodes();
-            
-            for( int j=0; j<attributes.getLength(); j++ ) {
-                Node child = attributes.item(j);
-                String name = child.getNodeName().toLowerCase();
-                String value;
-                
-                if( child.getChildNodes().getLength() > 0 ) {
-                    value = child.getFirstChild().getNodeValue();
+            for( LoadBalancer lb : loadBalancers ) {
+                List<String> ruleIds = rulesByAddress.get(lb.getProviderLoadBalancerId());
+
+                if( ruleIds != null ) {
+                    queue.addAll(ruleIds);
                 }
-                else {
-                    value = null;
+            }
+            List<Future<Void>> workers = new ArrayList<Future<Void>>();
+
+            for( int i = Math.min(MAX_CONCURRENT, queue.size()); i > 0; i-- ) {
+                workers.add(getProvider().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        String ruleId;
+
+                        while( (ruleId = queue.poll()) != null ) {
+                            serversByRule.put(ruleId, getServersAt(ruleId));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> worker : workers ) {
+                getProvider().await(worker);
+            }
+            for( LoadBalancer lb : loadBalancers ) {
+                List<String> ruleIds = rulesByAddress.get(lb.getProviderLoadBalancerId());
+
+                if( ruleIds == null ) {
+                    continue;
                 }
-                if( name.equalsIgnoreCase("zoneid") ) {
-                    return (value != null && value.equalsIgnoreCase(getContext().getRegionId()));
+                Collection<String> serverIds;
+
+                if( ruleIds.size() == 1 ) {
+                    serverIds = serversByRule.get(ruleIds.get(0));
                 }
+                else {
+                    serverIds = new TreeSet<String>();
+                    for( String ruleId : ruleIds ) {
+                        serverIds.addAll(serversByRule.get(ruleId));
+                    }
+                }
+                //noinspection deprecation
+                lb.setProviderServerIds(serverIds.toArray(new String[serverIds.size()]));
             }
         }
-        return false;
     }
 
     @Override
@@ -707,30 +949,7 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
     public void removeServers(@Nonnull String toLoadBalancerId, @Nonnull String ... serverIds) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "LB.removeServers");
         try {
-            LoadBalancer lb = getLoadBalancer(toLoadBalancerId);
-
-            if( lb == null ) {
-                throw new CloudException("No such load balancer: " + toLoadBalancerId);
-            }
-            StringBuilder ids = new StringBuilder();
-
-            for( int i=0; i<serverIds.length; i++ ) {
-                ids.append(serverIds[i]);
-                if( i < serverIds.length-1 ) {
-                    ids.append(",");
-                }
-            }
-            for( LbListener listener : lb.getListeners() ) {
-                String ruleId = getVmOpsRuleId(listener.getAlgorithm(), toLoadBalancerId, listener.getPublicPort(), listener.getPrivatePort(), lb.getProviderVlanId());
-
-                Document doc = new CSMethod(getProvider()).get(
-                        REMOVE_FROM_LOAD_BALANCER_RULE,
-                        new Param("id", ruleId),
-                        new Param("virtualMachineIds", ids.toString())
-                );
-
-                getProvider().waitForJob(doc, "Remove Server");
-            }
+            updateMembers(toLoadBalancerId, serverIds, REMOVE_FROM_LOAD_BALANCER_RULE, "Remove Server");
         }
         catch( RuntimeException e ) {
             throw new InternalException(e);
@@ -915,7 +1134,7 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
         getProvider().waitForJob(doc, "Remove Load Balancer Rule");
     }
     
-    private void toRule(@Nullable Node node, @Nonnull Map<String,LoadBalancer> current) throws InternalException, CloudException {
+    private void toRule(@Nullable Node node, @Nonnull Map<String,LoadBalancer> current, @Nullable RuleMembers members) throws InternalException, CloudException {
         NodeList attributes = node.getChildNodes();
         int publicPort = -1, privatePort = -1;
         LbAlgorithm algorithm = null;
@@ -973,12 +1192,12 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
             }
         }
         LbListener listener = LbListener.getInstance(algorithm, LbPersistence.NONE, LbProtocol.RAW_TCP, publicPort, privatePort);
-        Collection<String> serverIds = getServersAt(ruleId);
 
+        if( members != null ) {
+            members.fetch(publicIp, ruleId);
+        }
         if( current.containsKey(publicIp) ) {
             LoadBalancer lb = current.get(publicIp);
-
-            @SuppressWarnings("deprecation") String[] currentIds = lb.getProviderServerIds();
             LbListener[] listeners = lb.getListeners();
 
             boolean there = false;
@@ -997,15 +1216,6 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
             if( !there ) {
                 lb.withListeners(listener);
             }
-            // TODO: WTF?
-            TreeSet<String> newIds = new TreeSet<String>();
-
-            Collections.addAll(newIds, currentIds);
-            for( String id : serverIds ) {
-                newIds.add(id);
-            }
-            //noinspection deprecation
-            lb.setProviderServerIds(newIds.toArray(new String[newIds.size()]));
             //noinspection deprecation
             lb.setName(lbName);
             //noinspection deprecation
@@ -1021,7 +1231,7 @@ public class LoadBalancers extends AbstractLoadBalancerSupport<CSCloud> {
             LoadBalancer lb = LoadBalancer.getInstance(getContext().getAccountNumber(), getContext().getRegionId(), publicIp, LoadBalancerState.ACTIVE, lbName, lbDesc, LoadBalancerAddressType.IP, publicIp, publicPort).withListeners(listener).operatingIn(ids.toArray(new String[ids.size()]));
             lb.forVlan(vlanId);
             //noinspection deprecation
-            lb.setProviderServerIds(serverIds.toArray(new String[serverIds.size()]));
+            lb.setProviderServerIds(new String[0]);
             current.put(publicIp, lb);
         }
     }
@@ -26,6 +26,11 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -44,13 +49,9 @@ import org.dasein.cloud.cloudstack.CSMethod;
 import org.dasein.cloud.cloudstack.Param;
 import org.dasein.cloud.compute.VirtualMachine;
 import org.dasein.cloud.network.AbstractVLANSupport;
-import org.dasein.cloud.network.Firewall;
-import org.dasein.cloud.network.FirewallSupport;
 import org.dasein.cloud.network.InternetGateway;
-import org.dasein.cloud.network.IpAddressSupport;
 import org.dasein.cloud.network.IPVersion;
 import org.dasein.cloud.network.Networkable;
-import org.dasein.cloud.network.NetworkServices;
 import org.dasein.cloud.network.RoutingTable;
 import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.network.VLANCapabilities;
@@ -58,6 +59,9 @@ import org.dasein.cloud.network.VLANState;
 import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.Jiterator;
+import org.dasein.util.JiteratorPopulator;
+import org.dasein.util.PopulatorThread;
 import org.dasein.util.uom.time.Hour;
 import org.dasein.util.uom.time.TimePeriod;
 import org.w3c.dom.Document;
@@ -527,52 +531,96 @@ public class Network extends AbstractVLANSupport<CSCloud> {
         return Collections.emptyList();
     }
 
+    /**
+     * Lists the addresses and virtual machines of the network concurrently, with the network filter applied by
+     * the cloud, and streams each source back as soon as it has been listed. Security groups are not listed
+     * because CloudStack security groups never belong to a network.
+     */
     @Override
-    public @Nonnull Iterable<Networkable> listResources( @Nonnull String inVlanId ) throws CloudException, InternalException {
+    public @Nonnull Iterable<Networkable> listResources( @Nonnull final String inVlanId ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "VLAN.listResources");
+        getProvider().hold();
+        boolean started = false;
         try {
-            ArrayList<Networkable> resources = new ArrayList<Networkable>();
-            NetworkServices network = getProvider().getNetworkServices();
-
-            FirewallSupport fwSupport = network.getFirewallSupport();
-
-            if( fwSupport != null ) {
-                for( Firewall fw : fwSupport.list() ) {
-                    if( inVlanId.equals(fw.getProviderVlanId()) ) {
-                        resources.add(fw);
-                    }
+            final IpAddress ipSupport = getProvider().getNetworkServices().getIpAddressSupport();
+            final BlockingQueue<Future<? extends Iterable<? extends Networkable>>> completed = new LinkedBlockingQueue<Future<? extends Iterable<? extends Networkable>>>();
+            final Future<Iterable<VirtualMachine>> vms = submitResourceListing(completed, new Callable<Iterable<VirtualMachine>>() {
+                @Override
+                public Iterable<VirtualMachine> call() throws Exception {
+                    return getProvider().getComputeServices().getVirtualMachineSupport().listVirtualMachinesInVlan(inVlanId);
                 }
-            }
-
-            IpAddressSupport ipSupport = network.getIpAddressSupport();
+            });
+            int count = 2;
 
+            submitResourceListing(completed, new Callable<Iterable<RoutingTable>>() {
+                @Override
+                public Iterable<RoutingTable> call() throws Exception {
+                    return listRoutingTables(inVlanId);
+                }
+            });
             if( ipSupport != null ) {
-                for( IPVersion version : ipSupport.getCapabilities().listSupportedIPVersions() ) {
-                    for( org.dasein.cloud.network.IpAddress addr : ipSupport.listIpPool(version, false) ) {
-                        if( inVlanId.equals(addr.getProviderVlanId()) ) {
-                            resources.add(addr);
+                submitResourceListing(completed, new Callable<Iterable<org.dasein.cloud.network.IpAddress>>() {
+                    @Override
+                    public Iterable<org.dasein.cloud.network.IpAddress> call() throws Exception {
+                        return getProvider().await(ipSupport.listIpPoolForVlanConcurrently(inVlanId, vms));
+                    }
+                });
+                count++;
+            }
+            final int sources = count;
+            PopulatorThread<Networkable> populator = new PopulatorThread<Networkable>(new JiteratorPopulator<Networkable>() {
+                @Override
+                public void populate(@Nonnull Jiterator<Networkable> iterator) throws Exception {
+                    try {
+                        // push each source as soon as it completes rather than in a fixed order
+                        for( int i = 0; i < sources; i++ ) {
+                            for( Networkable resource : getProvider().await(completed.take()) ) {
+                                if( resource instanceof org.dasein.cloud.network.IpAddress && !inVlanId.equals(((org.dasein.cloud.network.IpAddress)resource).getProviderVlanId()) ) {
+                                    continue;
+                                }
+                                iterator.push(resource);
+                            }
                         }
                     }
-
+                    finally {
+                        getProvider().release();
+                    }
                 }
-            }
-            for( RoutingTable table : listRoutingTables(inVlanId) ) {
-                resources.add(table);
-            }
-            Iterable<VirtualMachine> vms = getProvider().getComputeServices().getVirtualMachineSupport().listVirtualMachines();
+            });
 
-            for( VirtualMachine vm : vms ) {
-                if( inVlanId.equals(vm.getProviderVlanId()) ) {
-                    resources.add(vm);
-                }
-            }
-            return resources;
+            started = true;
+            populator.populate();
+            return populator.getResult();
         }
         finally {
+            if( !started ) {
+                getProvider().release();
+            }
             APITrace.end();
         }
     }
 
+    /**
+     * Submits one source of {@link #listResources(String)} and adds its future to the queue once it completes.
+     */
+    private @Nonnull <T extends Iterable<? extends Networkable>> Future<T> submitResourceListing(final @Nonnull BlockingQueue<Future<? extends Iterable<? extends Networkable>>> completed, @Nonnull Callable<T> listing) {
+        final FutureTask<T> task = new FutureTask<T>(listing) {
+            @Override
+            protected void done() {
+                completed.add(this);
+            }
+        };
+
+        getProvider().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                task.run();
+                return null;
+            }
+        });
+        return task;
+    }
+
     @Override
     public @Nonnull Iterable<ResourceStatus> listVlanStatus() throws CloudException, InternalException {
         APITrace.begin(getProvider(), "VLAN.listVlanStatus");
@@ -18,12 +18,25 @@
 
 package org.dasein.cloud.cloudstack.network;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
@@ -32,7 +45,6 @@ import org.dasein.cloud.OperationNotSupportedException;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.Tag;
 import org.dasein.cloud.cloudstack.CSCloud;
-import org.dasein.cloud.cloudstack.CSException;
 import org.dasein.cloud.cloudstack.CSMethod;
 import org.dasein.cloud.cloudstack.Param;
 import org.dasein.cloud.network.AbstractFirewallSupport;
@@ -47,6 +59,10 @@ import org.dasein.cloud.network.Protocol;
 import org.dasein.cloud.network.RuleTarget;
 import org.dasein.cloud.network.RuleTargetType;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.uom.time.Second;
+import org.dasein.util.uom.time.TimePeriod;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -66,6 +82,9 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
     static public final String REVOKE_SECURITY_GROUP_EGRESS     = "revokeSecurityGroupEgress";
     static public final String REVOKE_SECURITY_GROUP_INGRESS    = "revokeSecurityGroupIngress";
 
+    // upper bound for the encoded cidrlist parameter of a single authorize call
+    static private final int MAX_CIDRLIST_LENGTH = 2000;
+
     SecurityGroup(CSCloud provider) {
         super(provider);
     }
@@ -77,50 +96,618 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
             if( !permission.equals(Permission.ALLOW) ) {
                 throw new OperationNotSupportedException("Only ALLOW rules are supported");
             }
-            String sourceCidr = null;
-            boolean group;
-            String command = AUTHORIZE_SECURITY_GROUP_EGRESS;
+            RuleSpec rule = new RuleSpec(direction, protocol, beginPort, endPort, toCidr(direction, sourceEndpoint, destinationEndpoint));
 
-            if( direction.equals(Direction.INGRESS) ) {
-                command = AUTHORIZE_SECURITY_GROUP_INGRESS;
-                group = sourceEndpoint.getRuleTargetType().equals(RuleTargetType.GLOBAL);
-                if( !group ) {
-                    sourceCidr = sourceEndpoint.getCidr();
-                }
+            try {
+                return authorize(firewallId, Collections.singletonList(rule), true).get(0);
             }
-            else {
-                group = destinationEndpoint.getRuleTargetType().equals(RuleTargetType.GLOBAL);
-                if( !group ) {
-                    sourceCidr = destinationEndpoint.getCidr();
+            finally {
+                invalidateSnapshot();
+            }
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Authorizes many rules for one security group. Rules that differ only in their CIDR are combined into
+     * <code>cidrlist</code> calls of up to {@link #MAX_CIDRLIST_LENGTH} encoded characters, all calls run concurrently on the shared executor and the new rule ids are read
+     * from the results of the async jobs.
+     * @param firewallId the security group to add the rules to
+     * @param rules the rules to authorize
+     * @return the ids of the new rules, in the order of the rules
+     * @throws CloudException an error occurred with the cloud provider authorizing the rules
+     * @throws InternalException an error occurred within Dasein Cloud authorizing the rules
+     */
+    public @Nonnull List<String> authorize(@Nonnull String firewallId, @Nonnull List<FirewallRuleCreateOptions> rules) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Firewall.authorizeMany");
+        try {
+            List<RuleSpec> specs = new ArrayList<RuleSpec>();
+
+            for( FirewallRuleCreateOptions rule : rules ) {
+                if( !Permission.ALLOW.equals(rule.getPermission()) ) {
+                    throw new OperationNotSupportedException("Only ALLOW rules are supported");
                 }
+                specs.add(new RuleSpec(rule.getDirection(), rule.getProtocol(), rule.getPortRangeStart(), rule.getPortRangeEnd(), toCidr(rule.getDirection(), rule.getSourceEndpoint(), rule.getDestinationEndpoint())));
             }
-            // TODO should be communicated via capabilities
-            if( group ) {
-                throw new OperationNotSupportedException("Security group sources & destinations are not supported");
+            try {
+                return authorize(firewallId, specs, true);
             }
-            if( sourceCidr != null && sourceCidr.indexOf('/') == -1 ) {
-                sourceCidr = sourceCidr + "/32";
+            finally {
+                invalidateSnapshot();
             }
-            Document doc = new CSMethod(getProvider()).get(
-                    command,
-                    new Param("securitygroupid", firewallId),
-                    new Param("cidrlist", sourceCidr),
-                    new Param(Protocol.ICMP.equals(protocol) ? "icmptype" : "startport", String.valueOf(beginPort)),
-                    new Param(Protocol.ICMP.equals(protocol) ? "icmpcode" : "endport", String.valueOf(endPort)),
-                    new Param("protocol", protocol.name())
-            );
-            getProvider().waitForJob(doc, "Authorize rule");
-            final String id = getRuleId(firewallId, direction, permission, protocol, sourceEndpoint, destinationEndpoint, beginPort, endPort);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * The parts of an ALLOW rule that CloudStack stores: direction, protocol, port range and remote CIDR.
+     */
+    static final class RuleSpec {
+        private final Direction direction;
+        private final Protocol  protocol;
+        private final int       startPort;
+        private final int       endPort;
+        private final String    cidr;
+
+        RuleSpec(@Nonnull Direction direction, @Nonnull Protocol protocol, int startPort, int endPort, @Nonnull String cidr) {
+            this.direction = direction;
+            this.protocol = protocol;
+            this.startPort = startPort;
+            this.endPort = endPort;
+            this.cidr = cidr;
+        }
+
+        private @Nonnull String getBatchKey() {
+            return direction + ":" + protocol + ":" + startPort + ":" + endPort;
+        }
+
+        @Nonnull String getKey() {
+            return getBatchKey() + ":" + cidr;
+        }
+    }
+
+    private @Nonnull List<String> authorize(@Nonnull String firewallId, @Nonnull List<RuleSpec> rules, boolean identify) throws CloudException, InternalException {
+        Map<String,List<RuleSpec>> batches = new LinkedHashMap<String,List<RuleSpec>>();
+
+        for( RuleSpec rule : rules ) {
+            List<RuleSpec> batch = batches.get(rule.getBatchKey());
+
+            if( batch == null ) {
+                batch = new ArrayList<RuleSpec>();
+                batches.put(rule.getBatchKey(), batch);
+            }
+            batch.add(rule);
+        }
+        List<Future<Document>> jobs = new ArrayList<Future<Document>>();
+        List<Direction> directions = new ArrayList<Direction>();
+
+        for( List<RuleSpec> batch : batches.values() ) {
+            RuleSpec rule = batch.get(0);
+            Set<String> cidrList = new LinkedHashSet<String>();
+
+            for( RuleSpec r : batch ) {
+                cidrList.add(r.cidr);
+            }
+            for( String chunk : chunkCidrs(cidrList) ) {
+                jobs.add(submitAuthorize(firewallId, rule.direction, rule.protocol, rule.startPort, rule.endPort, chunk));
+                directions.add(rule.direction);
+            }
+        }
+        Map<String,String> ids = new HashMap<String,String>();
+
+        for( int b=0; b<jobs.size(); b++ ) {
+            Document result = getProvider().await(jobs.get(b));
+            Direction direction = directions.get(b);
+
+            if( result == null ) {
+                // no job was reported, so the rules are identified by listing the group below
+                continue;
+            }
+            NodeList matches = result.getElementsByTagName(Direction.INGRESS.equals(direction) ? "ingressrule" : "egressrule");
+
+            for( int i=0; i<matches.getLength(); i++ ) {
+                FirewallRule created = toRule(firewallId, matches.item(i), direction);
+                String cidr = ( created == null ? null : getCidr(created) );
+
+                if( cidr != null && created.getProviderRuleId() != null ) {
+                    ids.put(new RuleSpec(direction, created.getProtocol(), created.getStartPort(), created.getEndPort(), cidr).getKey(), created.getProviderRuleId());
+                }
+            }
+        }
+        List<String> results = new ArrayList<String>();
+
+        if( !identify ) {
+            return results;
+        }
+        for( RuleSpec rule : rules ) {
+            String id = ids.get(rule.getKey());
+
             if( id == null ) {
-                throw new CloudException("Unable to identify newly created firewall rule ID");
+                // older versions do not report the new rules in the job result
+                RuleTarget local = RuleTarget.getGlobal(firewallId), remote = RuleTarget.getCIDR(rule.cidr);
+
+                if( Direction.INGRESS.equals(rule.direction) ) {
+                    id = getRuleId(firewallId, rule.direction, Permission.ALLOW, rule.protocol, remote, local, rule.startPort, rule.endPort);
+                }
+                else {
+                    id = getRuleId(firewallId, rule.direction, Permission.ALLOW, rule.protocol, local, remote, rule.startPort, rule.endPort);
+                }
+                if( id == null ) {
+                    throw new CloudException("Unable to identify newly created firewall rule ID");
+                }
             }
-            return id;
+            results.add(id);
+        }
+        return results;
+    }
+
+    /**
+     * Outcome of reconciling one security group through {@link #reconcile(Map)}.
+     */
+    static public class ReconcileResult {
+        public String    firewallId;
+        public int       authorized;
+        public int       revoked;
+        public Exception error;
+
+        public String toString() {return firewallId + ": +" + authorized + " -" + revoked + (error == null ? "" : " " + error.getMessage());}
+    }
+
+    /**
+     * Brings security groups to a desired set of rules. The current rules of all groups are read from one
+     * <code>listSecurityGroups</code> listing; each group then gets only the authorize and revoke calls needed to
+     * match its desired rules, with authorizations batched by protocol and port range. Groups are reconciled
+     * concurrently, a few at a time. Running it again with the same rules makes no calls beyond the listing.
+     * Existing rules with a security group as their remote end cannot be described here and are left in place.
+     * @param desired the complete set of ALLOW rules wanted for each security group, by security group id
+     * @return the outcome for each security group
+     * @throws CloudException an error occurred with the cloud provider listing the security groups
+     * @throws InternalException an error occurred within Dasein Cloud listing the security groups
+     */
+    public @Nonnull List<ReconcileResult> reconcile(@Nonnull Map<String,? extends Collection<FirewallRule>> desired) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Firewall.reconcile");
+        try {
+            invalidateSnapshot();
+            final Map<String,List<FirewallRule>> current = loadSnapshot().rules;
+            final Queue<ReconcileResult> queue = new ConcurrentLinkedQueue<ReconcileResult>();
+            final Map<String,Collection<FirewallRule>> wanted = new HashMap<String,Collection<FirewallRule>>();
+            List<ReconcileResult> results = new ArrayList<ReconcileResult>();
+
+            for( Map.Entry<String,? extends Collection<FirewallRule>> entry : desired.entrySet() ) {
+                ReconcileResult result = new ReconcileResult();
+
+                result.firewallId = entry.getKey();
+                wanted.put(entry.getKey(), entry.getValue());
+                results.add(result);
+                queue.add(result);
+            }
+            List<Future<Void>> workers = new ArrayList<Future<Void>>();
+
+            for( int i = Math.min(MAX_CONCURRENT_GROUPS, queue.size()); i > 0; i-- ) {
+                workers.add(getProvider().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        ReconcileResult result;
+
+                        while( (result = queue.poll()) != null ) {
+                            try {
+                                List<FirewallRule> rules = current.get(result.firewallId);
+
+                                if( rules == null ) {
+                                    throw new CloudException("No such security group: " + result.firewallId);
+                                }
+                                reconcile(result, wanted.get(result.firewallId), rules);
+                            }
+                            catch( Exception e ) {
+                                result.error = e;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            try {
+                for( Future<Void> worker : workers ) {
+                    getProvider().await(worker);
+                }
+            }
+            finally {
+                invalidateSnapshot();
+            }
+            return results;
         }
         finally {
             APITrace.end();
         }
     }
 
+    static private final int MAX_CONCURRENT_GROUPS = 8;
+
+    private void reconcile(@Nonnull ReconcileResult result, @Nonnull Collection<FirewallRule> desired, @Nonnull List<FirewallRule> current) throws CloudException, InternalException {
+        Map<String,RuleSpec> wanted = new LinkedHashMap<String,RuleSpec>();
+
+        for( FirewallRule rule : desired ) {
+            if( !Permission.ALLOW.equals(rule.getPermission()) ) {
+                throw new OperationNotSupportedException("Only ALLOW rules are supported");
+            }
+            RuleSpec spec = new RuleSpec(rule.getDirection(), rule.getProtocol(), rule.getStartPort(), rule.getEndPort(), toCidr(rule.getDirection(), rule.getSourceEndpoint(), rule.getDestinationEndpoint()));
+
+            wanted.put(spec.getKey(), spec);
+        }
+        RuleDiff diff = diff(wanted.values(), current);
+
+        // authorize first so that traffic allowed by both rule sets keeps flowing while the change is made
+        if( !diff.missing.isEmpty() ) {
+            authorize(result.firewallId, diff.missing, false);
+            result.authorized = diff.missing.size();
+        }
+        if( !diff.obsolete.isEmpty() ) {
+            revoke(diff.obsolete);
+            result.revoked = diff.obsolete.size();
+        }
+    }
+
+    /**
+     * The changes that bring a security group from its current rules to the wanted ones.
+     */
+    static final class RuleDiff {
+        final List<FirewallRule> obsolete = new ArrayList<FirewallRule>();
+        final List<RuleSpec>     missing  = new ArrayList<RuleSpec>();
+    }
+
+    /**
+     * Compares the current rules of a security group with the wanted ones. Current rules that are not wanted or
+     * duplicate another current rule are obsolete; rules with a security group as their remote end cannot be
+     * described by a {@link RuleSpec} and are left alone.
+     */
+    static @Nonnull RuleDiff diff(@Nonnull Collection<RuleSpec> wantedRules, @Nonnull Collection<FirewallRule> current) {
+        Map<String,RuleSpec> wanted = new LinkedHashMap<String,RuleSpec>();
+        Set<String> present = new HashSet<String>();
+        RuleDiff diff = new RuleDiff();
+
+        for( RuleSpec spec : wantedRules ) {
+            wanted.put(spec.getKey(), spec);
+        }
+        for( FirewallRule rule : current ) {
+            String cidr = getCidr(rule);
+
+            if( cidr == null ) {
+                // group sources cannot be expressed as desired rules, so they are left alone
+                continue;
+            }
+            String key = new RuleSpec(rule.getDirection(), rule.getProtocol(), rule.getStartPort(), rule.getEndPort(), cidr).getKey();
+
+            if( !wanted.containsKey(key) || !present.add(key) ) {
+                diff.obsolete.add(rule);
+            }
+        }
+        for( Map.Entry<String,RuleSpec> entry : wanted.entrySet() ) {
+            if( !present.contains(entry.getKey()) ) {
+                diff.missing.add(entry.getValue());
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * The security groups of the account with their rules, indexed by group, by member virtual machine, by rule
+     * and by remote CIDR.
+     */
+    static private class GroupSnapshot {
+        private final Map<String,Firewall>           groups   = new LinkedHashMap<String,Firewall>();
+        private final Map<String,List<FirewallRule>> rules    = new HashMap<String,List<FirewallRule>>();
+        private final Map<String,List<String>>       byServer = new HashMap<String,List<String>>();
+        private final Map<String,FirewallRule>       byRule   = new HashMap<String,FirewallRule>();
+        private final Map<String,List<FirewallRule>> byCidr   = new HashMap<String,List<FirewallRule>>();
+        private boolean                              membership;
+
+        private <T> void add(@Nonnull Map<String,List<T>> map, @Nullable String key, @Nonnull T value) {
+            if( key != null ) {
+                List<T> values = map.get(key);
+
+                if( values == null ) {
+                    values = new ArrayList<T>();
+                    map.put(key, values);
+                }
+                values.add(value);
+            }
+        }
+    }
+
+    /**
+     * Provides the security groups of the account and their rules from {@link #loadSnapshot()}, cached for
+     * 15 seconds. Every call that changes groups or rules through this class invalidates the cached snapshot.
+     */
+    private @Nonnull GroupSnapshot getSnapshot() throws CloudException, InternalException {
+        Cache<GroupSnapshot> cache = Cache.getInstance(getProvider(), "securityGroupSnapshot", GroupSnapshot.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Second>(15, TimePeriod.SECOND));
+        Iterable<GroupSnapshot> cached = cache.get(getContext());
+
+        if( cached != null ) {
+            Iterator<GroupSnapshot> it = cached.iterator();
+
+            if( it.hasNext() ) {
+                return it.next();
+            }
+        }
+        GroupSnapshot snapshot = loadSnapshot();
+
+        cache.put(getContext(), Collections.singletonList(snapshot));
+        return snapshot;
+    }
+
+    /**
+     * The security groups of each virtual machine in the current zone as listed with the virtual machines.
+     */
+    static private class MembershipIndex {
+        private final Map<String,List<String>> byServer;
+
+        private MembershipIndex(@Nonnull Map<String,List<String>> byServer) {
+            this.byServer = byServer;
+        }
+    }
+
+    /**
+     * Provides the security group membership of the zone's virtual machines from one
+     * <code>listVirtualMachines</code> listing, cached for 15 seconds, for clouds that do not list the
+     * members of a security group.
+     */
+    private @Nonnull MembershipIndex getMembershipIndex() throws CloudException, InternalException {
+        Cache<MembershipIndex> cache = Cache.getInstance(getProvider(), "securityGroupMembership", MembershipIndex.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Second>(15, TimePeriod.SECOND));
+        Iterable<MembershipIndex> cached = cache.get(getContext());
+
+        if( cached != null ) {
+            Iterator<MembershipIndex> it = cached.iterator();
+
+            if( it.hasNext() ) {
+                return it.next();
+            }
+        }
+        MembershipIndex index = new MembershipIndex(getProvider().getComputeServices().getVirtualMachineSupport().listFirewallMembership());
+
+        cache.put(getContext(), Collections.singletonList(index));
+        return index;
+    }
+
+    private void invalidateSnapshot() {
+        Cache<GroupSnapshot> cache = Cache.getInstance(getProvider(), "securityGroupSnapshot", GroupSnapshot.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Second>(15, TimePeriod.SECOND));
+
+        cache.put(getContext(), Collections.<GroupSnapshot>emptyList());
+    }
+
+    /**
+     * Lists every security group of the account together with its rules from one paged
+     * <code>listSecurityGroups</code> listing, which embeds the rules of each group and, on newer versions,
+     * the ids of its virtual machines.
+     */
+    private @Nonnull GroupSnapshot loadSnapshot() throws CloudException, InternalException {
+        GroupSnapshot snapshot = new GroupSnapshot();
+        CSMethod method = new CSMethod(getProvider());
+        Param pageParam = new Param("page", "1");
+        List<Param> params = new ArrayList<Param>();
+
+        params.add(new Param("pagesize", "500"));
+        params.add(pageParam);
+
+        int numPages = 1;
+
+        for( int page = 1; page <= numPages; page++ ) {
+            pageParam.setValue(String.valueOf(page));
+            Document doc = method.get(LIST_SECURITY_GROUPS, params);
+
+            if( page == 1 ) {
+                NodeList nodes = doc.getElementsByTagName("count");
+                Node n = nodes.item(0);
+
+                if( n != null ) {
+                    int count = Integer.parseInt(n.getFirstChild().getNodeValue().trim());
+
+                    numPages = count / 500;
+                    if( count % 500 > 0 ) {
+                        numPages++;
+                    }
+                }
+            }
+            NodeList matches = doc.getElementsByTagName("securitygroup");
+
+            for( int i=0; i<matches.getLength(); i++ ) {
+                Node node = matches.item(i);
+                Firewall fw = toFirewall(node);
+
+                if( fw == null ) {
+                    continue;
+                }
+                String firewallId = fw.getProviderFirewallId();
+                List<FirewallRule> rules = new ArrayList<FirewallRule>();
+                NodeList attributes = node.getChildNodes();
+
+                for( int j=0; j<attributes.getLength(); j++ ) {
+                    Node attribute = attributes.item(j);
+                    String name = attribute.getNodeName();
+                    FirewallRule rule = null;
+
+                    if( name.equalsIgnoreCase("ingressrule") ) {
+                        rule = toRule(firewallId, attribute, Direction.INGRESS);
+                    }
+                    else if( name.equalsIgnoreCase("egressrule") ) {
+                        rule = toRule(firewallId, attribute, Direction.EGRESS);
+                    }
+                    else if( name.equalsIgnoreCase("virtualmachinecount") ) {
+                        snapshot.membership = true;
+                    }
+                    else if( name.equalsIgnoreCase("virtualmachineids") && attribute.hasChildNodes() ) {
+                        snapshot.membership = true;
+                        snapshot.add(snapshot.byServer, attribute.getFirstChild().getNodeValue().trim(), firewallId);
+                    }
+                    if( rule != null ) {
+                        rules.add(rule);
+                        if( rule.getProviderRuleId() != null ) {
+                            snapshot.byRule.put(rule.getProviderRuleId(), rule);
+                        }
+                        snapshot.add(snapshot.byCidr, getCidr(rule), rule);
+                    }
+                }
+                snapshot.groups.put(firewallId, fw);
+                snapshot.rules.put(firewallId, rules);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Lists the current rules of one security group with a <code>listSecurityGroups</code> call filtered by id,
+     * bypassing the account-wide snapshot.
+     */
+    private @Nonnull List<FirewallRule> loadRules(@Nonnull String firewallId) throws CloudException, InternalException {
+        Document doc = new CSMethod(getProvider()).get(LIST_SECURITY_GROUPS, new Param("id", firewallId));
+        NodeList matches = doc.getElementsByTagName("securitygroup");
+        List<FirewallRule> rules = new ArrayList<FirewallRule>();
+
+        for( int i=0; i<matches.getLength(); i++ ) {
+            NodeList attributes = matches.item(i).getChildNodes();
+
+            for( int j=0; j<attributes.getLength(); j++ ) {
+                Node attribute = attributes.item(j);
+                String name = attribute.getNodeName();
+                FirewallRule rule = null;
+
+                if( name.equalsIgnoreCase("ingressrule") ) {
+                    rule = toRule(firewallId, attribute, Direction.INGRESS);
+                }
+                else if( name.equalsIgnoreCase("egressrule") ) {
+                    rule = toRule(firewallId, attribute, Direction.EGRESS);
+                }
+                if( rule != null ) {
+                    rules.add(rule);
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Revokes many rules concurrently on the shared executor and waits for all of them to complete.
+     * @param rules the rules to revoke, as listed by {@link #getRules(String)}
+     * @throws CloudException an error occurred with the cloud provider revoking the rules
+     * @throws InternalException an error occurred within Dasein Cloud revoking the rules
+     */
+    public void revoke(@Nonnull Collection<FirewallRule> rules) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Firewall.revokeMany");
+        try {
+            List<Future<Document>> jobs = new ArrayList<Future<Document>>();
+
+            for( FirewallRule rule : rules ) {
+                final String command = ( Direction.EGRESS.equals(rule.getDirection()) ? REVOKE_SECURITY_GROUP_EGRESS : REVOKE_SECURITY_GROUP_INGRESS );
+                final String ruleId = rule.getProviderRuleId();
+
+                jobs.add(getProvider().submit(new Callable<Document>() {
+                    @Override
+                    public Document call() throws Exception {
+                        Document doc = new CSMethod(getProvider()).get(command, new Param("id", ruleId));
+
+                        return getProvider().waitForJob(doc, "Revoke rule");
+                    }
+                }));
+            }
+            try {
+                for( Future<Document> job : jobs ) {
+                    getProvider().await(job);
+                }
+            }
+            finally {
+                invalidateSnapshot();
+            }
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Splits the CIDRs into comma separated lists that keep each authorize request within
+     * {@link #MAX_CIDRLIST_LENGTH} encoded characters.
+     */
+    static @Nonnull List<String> chunkCidrs(@Nonnull Collection<String> cidrs) throws InternalException {
+        List<String> chunks = new ArrayList<String>();
+        StringBuilder chunk = new StringBuilder();
+        int length = 0;
+
+        try {
+            for( String cidr : cidrs ) {
+                int encoded = URLEncoder.encode(cidr, "UTF-8").length();
+
+                if( chunk.length() > 0 && length + 3 + encoded > MAX_CIDRLIST_LENGTH ) {
+                    chunks.add(chunk.toString());
+                    chunk = new StringBuilder();
+                    length = 0;
+                }
+                if( chunk.length() > 0 ) {
+                    chunk.append(",");
+                    length += 3;
+                }
+                chunk.append(cidr);
+                length += encoded;
+            }
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+        if( chunk.length() > 0 ) {
+            chunks.add(chunk.toString());
+        }
+        return chunks;
+    }
+
+    private @Nonnull Future<Document> submitAuthorize(@Nonnull final String firewallId, @Nonnull Direction direction, @Nonnull final Protocol protocol, final int beginPort, final int endPort, @Nonnull final String cidrList) {
+        final String command = ( Direction.INGRESS.equals(direction) ? AUTHORIZE_SECURITY_GROUP_INGRESS : AUTHORIZE_SECURITY_GROUP_EGRESS );
+
+        return getProvider().submit(new Callable<Document>() {
+            @Override
+            public Document call() throws Exception {
+                Document doc = new CSMethod(getProvider()).get(
+                        command,
+                        new Param("securitygroupid", firewallId),
+                        new Param("cidrlist", cidrList),
+                        new Param(Protocol.ICMP.equals(protocol) ? "icmptype" : "startport", String.valueOf(beginPort)),
+                        new Param(Protocol.ICMP.equals(protocol) ? "icmpcode" : "endport", String.valueOf(endPort)),
+                        new Param("protocol", protocol.name())
+                );
+                return getProvider().waitForJob(doc, "Authorize rule");
+            }
+        });
+    }
+
+    /**
+     * @return the CIDR of the remote end of a rule, with a /32 suffix added to a bare address
+     */
+    private @Nonnull String toCidr(@Nonnull Direction direction, @Nonnull RuleTarget sourceEndpoint, @Nonnull RuleTarget destinationEndpoint) throws CloudException, InternalException {
+        RuleTarget remote = ( Direction.INGRESS.equals(direction) ? sourceEndpoint : destinationEndpoint );
+
+        // TODO should be communicated via capabilities
+        if( remote.getRuleTargetType().equals(RuleTargetType.GLOBAL) ) {
+            throw new OperationNotSupportedException("Security group sources & destinations are not supported");
+        }
+        String cidr = remote.getCidr();
+
+        if( cidr == null ) {
+            throw new InternalException("No CIDR was specified for the rule");
+        }
+        if( cidr.indexOf('/') == -1 ) {
+            cidr = cidr + "/32";
+        }
+        return cidr;
+    }
+
+    static private @Nullable String getCidr(@Nonnull FirewallRule rule) {
+        RuleTarget remote = ( Direction.INGRESS.equals(rule.getDirection()) ? rule.getSourceEndpoint() : rule.getDestinationEndpoint() );
+        String cidr = remote.getCidr();
+
+        return ( cidr == null || cidr.indexOf('/') > -1 ? cidr : cidr + "/32" );
+    }
+
     private @Nullable String getRuleId(@Nonnull String firewallId, @Nonnull Direction direction, @Nonnull Permission permission, @Nonnull Protocol protocol, @Nonnull RuleTarget sourceEndpoint, @Nonnull RuleTarget destinationEndpoint, int beginPort, int endPort) throws CloudException, InternalException {
 
         //<egressrule>
@@ -130,7 +717,7 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
         // <endport>83</endport>
         // <cidr>209.98.98.98/32</cidr>
         // </egressrule>
-        for( FirewallRule rule : getRules(firewallId) ) {
+        for( FirewallRule rule : loadRules(firewallId) ) {
             if( rule.getDirection().equals(direction) ) {
                 if( rule.getPermission().equals(permission) ) {
                     if( rule.getProtocol().equals(protocol) ) {
@@ -193,10 +780,16 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
             if( groupId == null ) {
                 throw new CloudException("Failed to create firewall");
             }
+            invalidateSnapshot();
 
             // create initial rules if requested
+            List<FirewallRuleCreateOptions> initialRules = new ArrayList<FirewallRuleCreateOptions>();
+
             for( FirewallRuleCreateOptions ruleCreateOptions : options.getInitialRules() ) {
-                authorize(groupId, ruleCreateOptions);
+                initialRules.add(ruleCreateOptions);
+            }
+            if( !initialRules.isEmpty() ) {
+                authorize(groupId, initialRules);
             }
 
             // Set tags
@@ -225,15 +818,13 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
         APITrace.begin(getProvider(), "Firewall.delete");
         try {
             try {
-                for( FirewallRule rule : getRules(firewallId) ) {
-                    try { revoke(rule.getProviderRuleId()); }
-                    catch( Throwable ignore ) { }
-                }
+                revoke(getRules(firewallId));
             }
             catch( Throwable ignore ) {
                 // ignore
             }
             new CSMethod(getProvider()).get(DELETE_SECURITY_GROUP, new Param("id", firewallId));
+            invalidateSnapshot();
         }
         finally {
             APITrace.end();
@@ -255,27 +846,7 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
     public @Nullable Firewall getFirewall(@Nonnull String firewallId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Firewall.getFirewall");
         try {
-            final Document doc = new CSMethod(getProvider()).get(LIST_SECURITY_GROUPS, new Param("id", firewallId));
-            final NodeList matches = doc.getElementsByTagName("securitygroup");
-
-            for( int i=0; i<matches.getLength(); i++ ) {
-                Node node = matches.item(i);
-
-                if( node != null ) {
-                    Firewall fw = toFirewall(node);
-
-                    if( fw != null ) {
-                        return fw;
-                    }
-                }
-            }
-            return null;
-        }
-        catch( CSException e ) {
-            if( e.getHttpCode() == 431 ) {
-                return null;
-            }
-            throw e;
+            return getSnapshot().groups.get(firewallId);
         }
         finally {
             APITrace.end();
@@ -291,55 +862,28 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
     public @Nonnull Collection<FirewallRule> getRules(@Nonnull String firewallId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Firewall.getRules");
         try {
-            final CSMethod method = new CSMethod(getProvider());
-            Document doc = method.get(LIST_SECURITY_GROUPS, new Param("id", firewallId));
-            final List<FirewallRule> rules = new ArrayList<FirewallRule>();
-
-            int numPages = 1;
-            NodeList nodes = doc.getElementsByTagName("count");
-            Node n = nodes.item(0);
-            if (n != null) {
-                String value = n.getFirstChild().getNodeValue().trim();
-                int count = Integer.parseInt(value);
-                numPages = count/500;
-                int remainder = count % 500;
-                if (remainder > 0) {
-                    numPages++;
-                }
-            }
-
-            for (int page = 1; page <= numPages; page++) {
-                if (page > 1) {
-                    String nextPage = String.valueOf(page);
-                    doc = method.get(LIST_SECURITY_GROUPS, new Param("id", firewallId), new Param("pagesize", "500"), new Param("page", nextPage));
-                }
-                NodeList matches = doc.getElementsByTagName("ingressrule");
-                for( int i=0; i<matches.getLength(); i++ ) {
-                    Node node = matches.item(i);
+            List<FirewallRule> rules = getSnapshot().rules.get(firewallId);
 
-                    if( node != null ) {
-                        FirewallRule rule = toRule(firewallId, node, Direction.INGRESS);
-
-                        if( rule != null ) {
-                            rules.add(rule);
-                        }
-                    }
-                }
-
-                matches = doc.getElementsByTagName("egressrule");
-                for( int i=0; i<matches.getLength(); i++ ) {
-                    Node node = matches.item(i);
+            return ( rules == null ? new ArrayList<FirewallRule>() : new ArrayList<FirewallRule>(rules) );
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-                    if( node != null ) {
-                        FirewallRule rule = toRule(firewallId, node, Direction.EGRESS);
+    /**
+     * Lists the rules of all security groups that allow traffic from or to the specified CIDR.
+     * @param cidr the remote CIDR, a bare address is treated as a /32
+     * @return the matching rules of all security groups
+     * @throws InternalException an error occurred within Dasein Cloud while listing the rules
+     * @throws CloudException an error occurred with the cloud provider while listing the rules
+     */
+    public @Nonnull Collection<FirewallRule> listRulesForCidr(@Nonnull String cidr) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "Firewall.listRulesForCidr");
+        try {
+            List<FirewallRule> rules = getSnapshot().byCidr.get(cidr.indexOf('/') == -1 ? cidr + "/32" : cidr);
 
-                        if( rule != null ) {
-                            rules.add(rule);
-                        }
-                    }
-                }
-            }
-            return rules;
+            return ( rules == null ? new ArrayList<FirewallRule>() : new ArrayList<FirewallRule>(rules) );
         }
         finally {
             APITrace.end();
@@ -364,43 +908,7 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
     public @Nonnull Collection<Firewall> list() throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Firewall.list");
         try {
-            CSMethod method = new CSMethod(getProvider());
-            Document doc = method.get(LIST_SECURITY_GROUPS);
-            final List<Firewall> firewalls = new ArrayList<Firewall>();
-
-            int numPages = 1;
-            NodeList nodes = doc.getElementsByTagName("count");
-            Node n = nodes.item(0);
-            if (n != null) {
-                String value = n.getFirstChild().getNodeValue().trim();
-                int count = Integer.parseInt(value);
-                numPages = count/500;
-                int remainder = count % 500;
-                if (remainder > 0) {
-                    numPages++;
-                }
-            }
-
-            for (int page = 1; page <= numPages; page++) {
-                if (page > 1) {
-                    String nextPage = String.valueOf(page);
-                    doc = method.get(LIST_SECURITY_GROUPS, new Param("pagesize", "500"), new Param("page", nextPage));
-                }
-                NodeList matches = doc.getElementsByTagName("securitygroup");
-
-                for( int i=0; i<matches.getLength(); i++ ) {
-                    Node node = matches.item(i);
-
-                    if( node != null ) {
-                        Firewall fw = toFirewall(node);
-
-                        if( fw != null ) {
-                            firewalls.add(fw);
-                        }
-                    }
-                }
-            }
-            return firewalls;
+            return new ArrayList<Firewall>(getSnapshot().groups.values());
         }
         finally {
             APITrace.end();
@@ -457,20 +965,8 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
     public void revoke(@Nonnull String providerFirewallRuleId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Firewall.revoke");
         try {
-            FirewallRule target = null;
-
-            for( Firewall fw : list() ) {
-                //noinspection ConstantConditions
-                for( FirewallRule rule : getRules(fw.getProviderFirewallId()) ) {
-                    if( rule.getProviderRuleId().equals(providerFirewallRuleId) ) {
-                        target = rule;
-                        break;
-                    }
-                }
-                if( target != null ) {
-                    break;
-                }
-            }
+            FirewallRule target = getSnapshot().byRule.get(providerFirewallRuleId);
+
             if( target == null ) {
                 return;
             }
@@ -478,7 +974,14 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
             if( Direction.EGRESS.equals(target.getDirection()) ) {
                 command = REVOKE_SECURITY_GROUP_EGRESS;
             }
-            new CSMethod(getProvider()).get(command, new Param("id", providerFirewallRuleId));
+            Document doc = new CSMethod(getProvider()).get(command, new Param("id", providerFirewallRuleId));
+
+            try {
+                getProvider().waitForJob(doc, "Revoke rule");
+            }
+            finally {
+                invalidateSnapshot();
+            }
         }
         finally {
             APITrace.end();
@@ -488,6 +991,20 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
     public @Nonnull Iterable<String> listFirewallsForVM(@Nonnull String vmId) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Firewall.listFirewallsForVM");
         try {
+            GroupSnapshot snapshot = getSnapshot();
+
+            if( snapshot.membership ) {
+                List<String> firewallIds = snapshot.byServer.get(vmId);
+
+                return ( firewallIds == null ? new ArrayList<String>() : new ArrayList<String>(firewallIds) );
+            }
+            // older versions do not list the members of a group, so use the groups listed with the zone's VMs
+            List<String> firewallIds = getMembershipIndex().byServer.get(vmId);
+
+            if( firewallIds != null ) {
+                return new ArrayList<String>(firewallIds);
+            }
+            // not a VM of the current zone
             final CSMethod method = new CSMethod(getProvider());
             Document doc = method.get(LIST_SECURITY_GROUPS, new Param("virtualmachineId", vmId));
             final List<String> firewalls = new ArrayList<String>();
@@ -637,9 +1154,9 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
         }
         
         NodeList attributes = node.getChildNodes();
-        int startPort = -1, endPort = -1;
+        int startPort = -1, endPort = -1, icmpType = -1, icmpCode = -1;
         Protocol protocol = Protocol.TCP;
-        String source = "0.0.0.0/0";
+        String source = null, group = null;
         String ruleId = null;
 
         for( int i=0; i<attributes.getLength(); i++ ) {
@@ -668,6 +1185,19 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
             else if( name.equalsIgnoreCase("ruleId") && value != null ) {
                 ruleId = value;
             }
+            else if( name.equalsIgnoreCase("icmptype") && value != null ) {
+                icmpType = Integer.parseInt(value);
+            }
+            else if( name.equalsIgnoreCase("icmpcode") && value != null ) {
+                icmpCode = Integer.parseInt(value);
+            }
+            else if( name.equalsIgnoreCase("securitygroupname") && value != null ) {
+                group = value;
+            }
+        }
+        if( Protocol.ICMP.equals(protocol) ) {
+            startPort = icmpType;
+            endPort = icmpCode;
         }
         if( (startPort == -1 || endPort == -1) && (startPort != -1 || endPort != -1) ) {
             if( startPort == -1 ) {
@@ -677,11 +1207,23 @@ public class SecurityGroup extends AbstractFirewallSupport<CSCloud> {
                 endPort = startPort;
             }
         }
+        RuleTarget remote;
+
+        if( source != null ) {
+            remote = RuleTarget.getCIDR(source);
+        }
+        else if( group != null ) {
+            // a rule from usersecuritygrouplist; CloudStack reports the group by name only
+            remote = RuleTarget.getGlobal(group);
+        }
+        else {
+            remote = RuleTarget.getCIDR("0.0.0.0/0");
+        }
         if( direction.equals(Direction.INGRESS) ) {
-            return FirewallRule.getInstance(ruleId, firewallId, RuleTarget.getCIDR(source), direction, protocol, Permission.ALLOW, RuleTarget.getGlobal(firewallId), startPort, endPort);
+            return FirewallRule.getInstance(ruleId, firewallId, remote, direction, protocol, Permission.ALLOW, RuleTarget.getGlobal(firewallId), startPort, endPort);
         }
         else {
-            return FirewallRule.getInstance(ruleId, firewallId, RuleTarget.getGlobal(firewallId), direction, protocol, Permission.ALLOW, RuleTarget.getCIDR(source), startPort, endPort);
+            return FirewallRule.getInstance(ruleId, firewallId, RuleTarget.getGlobal(firewallId), direction, protocol, Permission.ALLOW, remote, startPort, endPort);
         }
     }
 
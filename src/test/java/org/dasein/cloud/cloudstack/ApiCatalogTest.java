@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ApiCatalogTest {
+    static private final String LIST_APIS =
+            "<listapisresponse><count>2</count>" +
+            "<api><name>listZones</name><isasync>false</isasync>" +
+            "<params><name>available</name><type>boolean</type><required>false</required><length>255</length></params>" +
+            "<params><name>pagesize</name><type>integer</type><required>false</required></params>" +
+            "</api>" +
+            "<api><name>deployVirtualMachine</name><isasync>true</isasync>" +
+            "<params><name>zoneid</name><type>uuid</type><required>true</required></params>" +
+            "</api>" +
+            "<api><isasync>false</isasync></api>" +
+            "</listapisresponse>";
+
+    static private Document parse(String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void parsesCommandsCaseInsensitively() throws Exception {
+        ApiCatalog catalog = ApiCatalog.parse(parse(LIST_APIS));
+
+        assertEquals(2, catalog.size());
+        assertTrue(catalog.hasApi("listzones"));
+        assertTrue(catalog.hasApi("DEPLOYVIRTUALMACHINE"));
+        assertFalse(catalog.hasApi("listAsyncJobs"));
+        assertNull(catalog.getApi("listAsyncJobs"));
+        assertEquals("deployVirtualMachine", catalog.getApi("deployvirtualmachine").getName());
+    }
+
+    @Test
+    public void parsesAsyncFlagsAndParams() throws Exception {
+        ApiCatalog catalog = ApiCatalog.parse(parse(LIST_APIS));
+        ApiCatalog.Api listZones = catalog.getApi("listZones");
+        ApiCatalog.Api deploy = catalog.getApi("deployVirtualMachine");
+
+        assertFalse(listZones.isAsync());
+        assertTrue(listZones.isPaged());
+        assertEquals(255, listZones.getParam("Available").getLength());
+        assertEquals("boolean", listZones.getParam("available").getType());
+        assertFalse(listZones.getParam("available").isRequired());
+
+        assertTrue(deploy.isAsync());
+        assertFalse(deploy.isPaged());
+        assertNotNull(deploy.getParam("zoneid"));
+        assertTrue(deploy.getParam("zoneid").isRequired());
+        assertEquals("uuid", deploy.getParam("zoneid").getType());
+        assertEquals(0, deploy.getParam("zoneid").getLength());
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.dasein.cloud.cloudstack.compute.VirtualMachines;
+import org.dasein.cloud.compute.VirtualMachineProduct;
+import org.junit.Test;
+
+public class DiscoverySnapshotTest {
+    /**
+     * Stores and loads the properties the way the snapshot file does.
+     */
+    static private Properties roundTrip(Properties snapshot) throws Exception {
+        StringWriter out = new StringWriter();
+        Properties loaded = new Properties();
+
+        snapshot.store(out, "test");
+        loaded.load(new StringReader(out.toString()));
+        return loaded;
+    }
+
+    @Test
+    public void apiSurvivesTheSnapshot() throws Exception {
+        Map<String, ApiCatalog.ApiParam> params = new HashMap<String, ApiCatalog.ApiParam>();
+
+        params.put("zoneid", new ApiCatalog.ApiParam("zoneid", "uuid", true, 255));
+        params.put("keyword", new ApiCatalog.ApiParam("keyword", null, false, 0));
+
+        Properties snapshot = new Properties();
+
+        snapshot.setProperty("api.deployvirtualmachine", DiscoverySnapshot.toString(new ApiCatalog.Api("deployVirtualMachine", true, params)));
+
+        ApiCatalog.Api api = DiscoverySnapshot.toApi(roundTrip(snapshot).getProperty("api.deployvirtualmachine"));
+
+        assertEquals("deployVirtualMachine", api.getName());
+        assertTrue(api.isAsync());
+        assertEquals(2, api.getParams().size());
+        assertEquals("uuid", api.getParam("zoneid").getType());
+        assertTrue(api.getParam("zoneid").isRequired());
+        assertEquals(255, api.getParam("zoneid").getLength());
+        assertNull(api.getParam("keyword").getType());
+        assertFalse(api.getParam("keyword").isRequired());
+    }
+
+    @Test
+    public void apiWithoutParamsSurvivesTheSnapshot() throws Exception {
+        ApiCatalog.Api api = DiscoverySnapshot.toApi(DiscoverySnapshot.toString(new ApiCatalog.Api("listZones", false, new HashMap<String, ApiCatalog.ApiParam>())));
+
+        assertEquals("listZones", api.getName());
+        assertFalse(api.isAsync());
+        assertTrue(api.getParams().isEmpty());
+    }
+
+    @Test
+    public void zoneSurvivesTheSnapshot() throws Exception {
+        Properties snapshot = new Properties();
+
+        snapshot.setProperty("zone.0", DiscoverySnapshot.toString(new ZoneDescriptor("z-1", "East | Zone A", "Advanced", true, "US")));
+        snapshot.setProperty("zone.1", DiscoverySnapshot.toString(new ZoneDescriptor("z-2", "West", null, false, "EU")));
+
+        Properties loaded = roundTrip(snapshot);
+        ZoneDescriptor east = DiscoverySnapshot.toZone(loaded.getProperty("zone.0"));
+        ZoneDescriptor west = DiscoverySnapshot.toZone(loaded.getProperty("zone.1"));
+
+        assertEquals("z-1", east.getZoneId());
+        assertEquals("East | Zone A", east.getName());
+        assertEquals("Advanced", east.getNetworkType());
+        assertTrue(east.isSecurityGroupsEnabled());
+        assertEquals("US", east.getJurisdiction());
+        assertEquals("z-2", west.getZoneId());
+        assertNull(west.getNetworkType());
+        assertFalse(west.isSecurityGroupsEnabled());
+        assertEquals("EU", west.getJurisdiction());
+    }
+
+    @Test
+    public void productSurvivesTheSnapshot() throws Exception {
+        Properties snapshot = new Properties();
+
+        snapshot.setProperty("products.z-1.0", DiscoverySnapshot.toString(VirtualMachines.toProduct("p-1", "Medium | 2 CPU", 2, 4096)));
+
+        VirtualMachineProduct product = DiscoverySnapshot.toProduct(roundTrip(snapshot).getProperty("products.z-1.0"));
+
+        assertEquals("p-1", product.getProviderProductId());
+        assertEquals("Medium | 2 CPU", product.getName());
+        assertEquals(2, product.getCpuCount());
+        assertEquals(4096, product.getRamSize().getQuantity().intValue());
+    }
+}
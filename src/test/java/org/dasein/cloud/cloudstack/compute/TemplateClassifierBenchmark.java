@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack.compute;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.compute.Platform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the keyword automata of {@link TemplateClassifier} with {@link Platform#guess(String)} on typical
+ * template names. Not run by surefire; run it with <code>main</code> from the test classpath.
+ *
+ * @version 2015.10 initial version
+ * @since 2015.10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TemplateClassifierBenchmark {
+    static private final String[] NAMES = {
+            "CentOS 6.5 (64-bit) no GUI (XenServer)",
+            "Ubuntu 14.04 LTS x64",
+            "Windows Server 2012 R2 Standard with SQL Server 2008",
+            "w2k8r2-sp1-template",
+            "Red Hat Enterprise Linux 7.1 (64-bit)",
+            "Debian GNU/Linux 8 (32-bit)",
+            "darwin-build-agent",
+            "tiny Linux"
+    };
+
+    @Benchmark
+    public void classifier(Blackhole blackhole) {
+        for( String name : NAMES ) {
+            blackhole.consume(TemplateClassifier.getPlatformForTemplateName(name));
+        }
+    }
+
+    @Benchmark
+    public void platformGuess(Blackhole blackhole) {
+        for( String name : NAMES ) {
+            blackhole.consume(Platform.guess(name));
+        }
+    }
+
+    @Benchmark
+    public void classifyUnmemoized(Blackhole blackhole) {
+        for( String name : NAMES ) {
+            blackhole.consume(TemplateClassifier.classify(null, null, name, name));
+        }
+    }
+
+    static public void main(String ... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TemplateClassifierBenchmark.class.getSimpleName()).build()).run();
+    }
+}
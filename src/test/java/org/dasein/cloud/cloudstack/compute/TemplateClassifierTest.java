@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+import org.junit.Test;
+
+public class TemplateClassifierTest {
+    @Test
+    public void windowsAbbreviationsMatchAsWords() {
+        assertTrue(TemplateClassifier.hasWindowsAbbreviation("win2012r2-std"));
+        assertTrue(TemplateClassifier.hasWindowsAbbreviation("w2k8r2-sp1-template"));
+        assertTrue(TemplateClassifier.hasWindowsAbbreviation("base W2008 image"));
+        assertTrue(TemplateClassifier.hasWindowsAbbreviation("win"));
+    }
+
+    @Test
+    public void windowsAbbreviationsInsideWordsDoNotMatch() {
+        assertFalse(TemplateClassifier.hasWindowsAbbreviation("darwin-build"));
+        assertFalse(TemplateClassifier.hasWindowsAbbreviation("winter-sale"));
+        assertFalse(TemplateClassifier.hasWindowsAbbreviation("aw2k"));
+        assertFalse(TemplateClassifier.hasWindowsAbbreviation(null));
+    }
+
+    @Test
+    public void distributionKeywordsDecideThePlatform() {
+        assertEquals(Platform.CENT_OS, TemplateClassifier.getPlatform("CentOS 6.5 (64-bit) no GUI"));
+        assertEquals(Platform.UBUNTU, TemplateClassifier.getPlatform("ubuntu-14.04-server"));
+        assertEquals(Platform.RHEL, TemplateClassifier.getPlatform("Red Hat Enterprise Linux 7"));
+        assertEquals(Platform.RHEL, TemplateClassifier.getPlatform("RHEL 6.5 with RedHat tools"));
+        assertEquals(Platform.UNKNOWN, TemplateClassifier.getPlatform(null));
+    }
+
+    @Test
+    public void architectureMarkers() {
+        assertEquals(Architecture.I32, TemplateClassifier.getArchitecture("Debian x32"));
+        assertEquals(Architecture.I64, TemplateClassifier.getArchitecture("Debian 64 bit"));
+        assertEquals(Architecture.I32, TemplateClassifier.getArchitecture("debian-i386"));
+        assertEquals(Architecture.I32, TemplateClassifier.getArchitecture("Debian 32 bit"));
+        assertEquals(Architecture.I64, TemplateClassifier.getArchitecture("Debian"));
+        assertEquals(Architecture.I64, TemplateClassifier.getArchitecture(null));
+    }
+
+    @Test
+    public void softwareIsListedPerCommaSeparatedPart() {
+        assertEquals("", TemplateClassifier.getSoftware("Windows 2008 R2"));
+        assertEquals("SQL Server 2005", TemplateClassifier.getSoftware("Windows 2008 R2 with SQL Server 2005"));
+        assertEquals("SQL Server 2008,SQL Server 2005", TemplateClassifier.getSoftware("SQL Server, sql server 2005"));
+    }
+
+    @Test
+    public void classificationsAreMemoizedWhileTheTemplateIsUnchanged() {
+        TemplateClassifier.Classification first = TemplateClassifier.classify("memo-test-1", null, "CentOS 6 x32", "CentOS 6 x32");
+
+        assertEquals(Platform.CENT_OS, first.getPlatform());
+        assertEquals(Architecture.I32, first.getArchitecture());
+        assertSame(first, TemplateClassifier.classify("memo-test-1", null, "CentOS 6 x32", "CentOS 6 x32"));
+
+        TemplateClassifier.Classification renamed = TemplateClassifier.classify("memo-test-1", null, "Ubuntu 14.04 x64", "Ubuntu 14.04 x64");
+
+        assertNotSame(first, renamed);
+        assertEquals(Platform.UBUNTU, renamed.getPlatform());
+        assertEquals(Architecture.I64, renamed.getArchitecture());
+    }
+}
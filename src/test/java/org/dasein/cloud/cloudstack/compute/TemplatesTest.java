@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TemplatesTest {
+    @Test
+    public void fewAccountsFitOneChunk() throws Exception {
+        assertEquals(Collections.singletonList("alice,bob,carol"), Templates.chunkAccounts(Arrays.asList("alice", "bob", "carol")));
+        assertTrue(Templates.chunkAccounts(Collections.<String>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void manyAccountsAreSplitWithinTheLimit() throws Exception {
+        List<String> accounts = new ArrayList<String>();
+
+        for( int i = 0; i < 500; i++ ) {
+            accounts.add("account name " + i);
+        }
+        List<String> chunks = Templates.chunkAccounts(accounts);
+        List<String> joined = new ArrayList<String>();
+
+        assertTrue(chunks.size() > 1);
+        for( String chunk : chunks ) {
+            assertTrue(URLEncoder.encode(chunk, "UTF-8").length() <= 2000);
+            joined.addAll(Arrays.asList(chunk.split(",")));
+        }
+        assertEquals(accounts, joined);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class AddressPoolTest {
+    @Test
+    public void replenishReservesOnlyWhatIsMissing() {
+        AddressPool pool = new AddressPool(null, 3);
+
+        assertEquals(3, pool.reserve());
+        assertEquals(0, pool.reserve());
+        assertEquals(3, pool.getPending());
+
+        assertTrue(pool.landed("10.0.0.1"));
+        assertFalse(pool.landed(null));
+        assertEquals(1, pool.getPending());
+        assertEquals(1, pool.getReady());
+
+        // one address is ready and one association is still pending
+        assertEquals(1, pool.reserve());
+        assertEquals(2, pool.getPending());
+    }
+
+    @Test
+    public void takenAddressesAreReplaced() {
+        AddressPool pool = new AddressPool("vlan-1", 2);
+
+        assertEquals(2, pool.reserve());
+        assertTrue(pool.landed("10.0.0.1"));
+        assertTrue(pool.landed("10.0.0.2"));
+        assertEquals(0, pool.reserve());
+        assertEquals("10.0.0.1", pool.poll());
+        assertEquals(1, pool.reserve());
+    }
+
+    @Test
+    public void drainEmptiesThePoolAndReleasesLateAddresses() {
+        AddressPool pool = new AddressPool(null, 3);
+
+        assertEquals(3, pool.reserve());
+        assertTrue(pool.landed("10.0.0.1"));
+        assertTrue(pool.landed("10.0.0.2"));
+        assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2"), pool.stop());
+        assertEquals(0, pool.getReady());
+        assertNull(pool.poll());
+
+        // the association still pending lands after the drain and must be released by the caller
+        assertFalse(pool.landed("10.0.0.3"));
+        assertEquals(0, pool.getPending());
+        assertEquals(0, pool.getReady());
+        assertEquals(0, pool.reserve());
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudstack.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dasein.cloud.network.Direction;
+import org.dasein.cloud.network.FirewallRule;
+import org.dasein.cloud.network.Permission;
+import org.dasein.cloud.network.Protocol;
+import org.dasein.cloud.network.RuleTarget;
+import org.junit.Test;
+
+public class SecurityGroupTest {
+    static private final String GROUP = "sg-1";
+
+    static private FirewallRule ingress(String ruleId, RuleTarget source, int port) {
+        return FirewallRule.getInstance(ruleId, GROUP, source, Direction.INGRESS, Protocol.TCP, Permission.ALLOW, RuleTarget.getGlobal(GROUP), port, port);
+    }
+
+    static private SecurityGroup.RuleSpec spec(String cidr, int port) {
+        return new SecurityGroup.RuleSpec(Direction.INGRESS, Protocol.TCP, port, port, cidr);
+    }
+
+    @Test
+    public void fewCidrsFitOneChunk() throws Exception {
+        assertEquals(Collections.singletonList("10.0.0.0/8,192.168.0.0/16"), SecurityGroup.chunkCidrs(Arrays.asList("10.0.0.0/8", "192.168.0.0/16")));
+    }
+
+    @Test
+    public void manyCidrsAreSplitWithinTheLimit() throws Exception {
+        List<String> cidrs = new ArrayList<String>();
+
+        for( int i = 0; i < 400; i++ ) {
+            cidrs.add("10." + (i / 256) + "." + (i % 256) + ".0/24");
+        }
+        List<String> chunks = SecurityGroup.chunkCidrs(cidrs);
+        List<String> joined = new ArrayList<String>();
+
+        assertTrue(chunks.size() > 1);
+        for( String chunk : chunks ) {
+            assertTrue(URLEncoder.encode(chunk, "UTF-8").length() <= 2000);
+            joined.addAll(Arrays.asList(chunk.split(",")));
+        }
+        assertEquals(cidrs, joined);
+    }
+
+    @Test
+    public void diffFindsObsoleteAndMissingRules() {
+        FirewallRule ssh = ingress("r1", RuleTarget.getCIDR("10.0.0.0/8"), 22);
+        FirewallRule https = ingress("r2", RuleTarget.getCIDR("0.0.0.0/0"), 443);
+        SecurityGroup.RuleDiff diff = SecurityGroup.diff(Arrays.asList(spec("10.0.0.0/8", 22), spec("0.0.0.0/0", 80)), Arrays.asList(ssh, https));
+
+        assertEquals(1, diff.obsolete.size());
+        assertSame(https, diff.obsolete.get(0));
+        assertEquals(1, diff.missing.size());
+        assertEquals(spec("0.0.0.0/0", 80).getKey(), diff.missing.get(0).getKey());
+    }
+
+    @Test
+    public void diffRevokesDuplicateRules() {
+        FirewallRule first = ingress("r1", RuleTarget.getCIDR("10.0.0.0/8"), 22);
+        FirewallRule duplicate = ingress("r2", RuleTarget.getCIDR("10.0.0.0/8"), 22);
+        SecurityGroup.RuleDiff diff = SecurityGroup.diff(Collections.singletonList(spec("10.0.0.0/8", 22)), Arrays.asList(first, duplicate));
+
+        assertEquals(Collections.singletonList(duplicate), diff.obsolete);
+        assertTrue(diff.missing.isEmpty());
+    }
+
+    @Test
+    public void diffMatchesBareAddressesAsHostRoutes() {
+        FirewallRule host = ingress("r1", RuleTarget.getCIDR("10.1.1.1"), 22);
+        SecurityGroup.RuleDiff diff = SecurityGroup.diff(Collections.singletonList(spec("10.1.1.1/32", 22)), Collections.singletonList(host));
+
+        assertTrue(diff.obsolete.isEmpty());
+        assertTrue(diff.missing.isEmpty());
+    }
+
+    @Test
+    public void diffLeavesGroupSourcesAlone() {
+        FirewallRule fromGroup = ingress("r1", RuleTarget.getGlobal("web-tier"), 8080);
+        SecurityGroup.RuleDiff diff = SecurityGroup.diff(Collections.<SecurityGroup.RuleSpec>emptyList(), Collections.singletonList(fromGroup));
+
+        assertTrue(diff.obsolete.isEmpty());
+        assertTrue(diff.missing.isEmpty());
+    }
+}